@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic repositories for benchmarking the core commands. "generate"
+ * builds one in the working directory; the JMH benchmarks in bench/ use
+ * the same generator to set up their repository and the edits below to
+ * prepare each measured command.
+ *
+ * Usage: java gitlet.Bench generate [--commits N] [--files N] [--branches N]
+ *                                   [--lines N] [--touch N] [--seed N]
+ * @author victorcruz
+ */
+public class Bench {
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa",
+    };
+
+    public static void main(String... args) {
+        if (args.length == 0) {
+            System.out.println("Please enter a command.");
+            Main.exit();
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.out.println("Incorrect operands.");
+                Main.exit();
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        if (!args[0].equals("generate")) {
+            System.out.println("No command with that name exists.");
+            Main.exit();
+        }
+        new Bench(option(options, "seed", 1)).generate(option(options, "commits", 1000),
+                option(options, "files", 1000), option(options, "branches", 4),
+                option(options, "lines", 40), option(options, "touch", 0));
+    }
+
+    Bench(long seed) {
+        _random = new Random(seed);
+    }
+
+    /**
+     Builds a repository of COMMITS commits over FILES files of LINES lines
+     each. BRANCHES branches fork off master at evenly spaced commits and
+     share the commits with it; each commit edits TOUCH files, or one in a
+     hundred if TOUCH is 0.
+     */
+    void generate(int commits, int files, int branches, int lines, int touch) {
+        if (Main.GITLET_DIR.exists()) {
+            System.out.println("A Gitlet version-control system already exists in the current directory.");
+            Main.exit();
+        }
+        long start = System.nanoTime();
+        gitlet("init");
+        _files = new String[files];
+        for (int i = 0; i < files; i++) {
+            _files[i] = String.format("f%05d.txt", i);
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < lines; j++) {
+                text.append(line());
+            }
+            write(_files[i], text.toString());
+        }
+        gitlet("add", ".");
+        gitlet("commit", "generated files");
+        int touched = touch > 0 ? touch : Math.max(1, files / 100);
+        int share = (commits - 1) / (branches + 1);
+        int interval = Math.max(1, share / Math.max(1, branches));
+        int made = 1;
+        for (int i = 0; i < share; i++) {
+            if (i % interval == 0 && i / interval < branches) {
+                gitlet("branch", "b" + (i / interval + 1));
+            }
+            add(edit(touched));
+            gitlet("commit", "master " + i);
+            made += 1;
+        }
+        for (int b = 1; b <= branches; b++) {
+            if (!new File(Main.BRANCHES_DIR, "b" + b).exists()) {
+                gitlet("branch", "b" + b);
+            }
+            gitlet("checkout", "b" + b);
+            int count = b == branches ? commits - made : share;
+            for (int i = 0; i < count; i++) {
+                add(edit(touched));
+                gitlet("commit", "b" + b + " " + i);
+                made += 1;
+            }
+            gitlet("checkout", "master");
+        }
+        System.out.printf("Generated %d commits of %d files on %d branches in %.1f s.%n",
+                made, files, branches + 1, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     Takes the files to edit from the head commit of the repository in the
+     working directory, for a repository generated by an earlier process.
+     */
+    void open() {
+        _files = Main.getHeadCommit().getBlobs().keySet().toArray(new String[0]);
+        Arrays.sort(_files);
+    }
+
+    /**
+     Returns some branch other than master, or null if there is none.
+     */
+    static String otherBranch() {
+        List<String> branches = Trace.list(Main.BRANCHES_DIR);
+        for (String branch : branches) {
+            if (!branch.equals("master")) {
+                return branch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     Runs gitlet with ARGS in this JVM, as the daemon would, writing its
+     framed output to OUT.
+     */
+    static void gitlet(OutputStream out, String... args) {
+        if (Daemon.run(args, new DataOutputStream(out)) != 0) {
+            throw new IllegalArgumentException("gitlet " + String.join(" ", args) + " failed.");
+        }
+    }
+
+    /**
+     Runs gitlet with ARGS in this JVM, discarding its output.
+     */
+    static void gitlet(String... args) {
+        gitlet(OutputStream.nullOutputStream(), args);
+    }
+
+    /**
+     Stages the files NAMES.
+     */
+    static void add(String[] names) {
+        String[] args = new String[names.length + 1];
+        args[0] = "add";
+        System.arraycopy(names, 0, args, 1, names.length);
+        gitlet(args);
+    }
+
+    /**
+     Changes a line in each of COUNT distinct random files, and returns
+     their names.
+     */
+    String[] edit(int count) {
+        List<String> edited = new ArrayList<>();
+        int first = _random.nextInt(_files.length);
+        for (int i = 0; i < Math.min(count, _files.length); i++) {
+            String name = _files[(first + i) % _files.length];
+            File file = new File(Main.CWD, name);
+            List<String> lines = new ArrayList<>(Arrays.asList(
+                    Utils.readContentsAsString(file).split("\n", -1)));
+            lines.set(_random.nextInt(lines.size()), line().trim());
+            write(name, String.join("\n", lines));
+            edited.add(name);
+        }
+        return edited.toArray(new String[0]);
+    }
+
+    /**
+     Returns a line of random words.
+     */
+    private String line() {
+        StringBuilder line = new StringBuilder();
+        int words = 3 + _random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            line.append(i == 0 ? "" : " ").append(WORDS[_random.nextInt(WORDS.length)]);
+        }
+        return line.append('\n').toString();
+    }
+
+    private static void write(String name, String text) {
+        try {
+            Files.write(new File(Main.CWD, name).toPath(), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static int option(Map<String, String> options, String name, int otherwise) {
+        String value = options.get(name);
+        try {
+            return value == null ? otherwise : Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            System.out.println("Incorrect operands.");
+            Main.exit();
+            return otherwise;
+        }
+    }
+
+    private final Random _random;
+
+    /** File names edits are made to. */
+    private String[] _files;
+}
@@ -1,29 +1,257 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Formatter;
 
 /**
- * Blob file holds file object.
+ * Blob file holds file object. Blobs are stored as the raw bytes of the file
+ * under BLOB_FOLDER, named by the SHA-1 of those bytes, and are hashed and
+ * copied through fixed-size buffers so heap use does not grow with file size.
  * @author victorcruz
  */
-public class Blob implements Serializable {
+public class Blob {
     static final File BLOB_FOLDER = new File(Main.GITLET_DIR, "blobs");
 
+    /** Size of the buffer files are hashed through. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     Constructor. UID must name a stored blob.
+     */
+    public Blob(String UID) {
+        _hash = UID;
+    }
     /**
-     Constructor.
+     For hash retrieval.
      */
-    public Blob(File file) {
-        _contents = Utils.readContentsAsString(file);
+    public String getHash() {
+        return _hash;
     }
     /**
-     For _contents retrieval.
+     For _contents retrieval. Reads the whole blob, so only use it when the
+     text itself is needed.
      */
     public String getContents() {
-        return _contents;
+        return new String(readAll(_hash), StandardCharsets.UTF_8);
+    }
+
+    /**
+     Returns the SHA-1 of FILE's bytes without storing anything.
+     */
+    public static String hash(File file) {
+        MessageDigest md = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                Trace.Counter.BYTES_HASHED.add(buffer.remaining());
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
     }
+
+    /**
+     Stores FILE as a blob and returns its UID.
+     */
+    public static String store(File file) {
+        String UID = hash(file);
+        write(file, UID);
+        return UID;
+    }
+
+    /**
+     Stores FILE under UID, which must be its hash. Writing a blob that
+     already exists is a no-op.
+     */
+    public static void write(File file, String UID) {
+        File target = new File(BLOB_FOLDER, UID);
+        if (exists(UID)) {
+            return;
+        }
+        try {
+            Path temp = Durable.tempFor(target);
+            Files.copy(file.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+            Trace.Counter.BYTES_WRITTEN.add(Files.size(temp));
+            Durable.install(temp, target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Stores the bytes read from IN as loose blob UID, which must be their
+     hash, copying them through a buffer rather than holding them.
+     */
+    public static void write(InputStream in, String UID) {
+        File target = new File(BLOB_FOLDER, UID);
+        try {
+            Path temp = Durable.tempFor(target);
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            Trace.Counter.BYTES_WRITTEN.add(Files.size(temp));
+            Durable.install(temp, target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Stores FILE under UID, which must be its hash, as a delta against blob
+     BASEUID (the previous version of the same file) when that is small
+     enough, and whole otherwise.
+     */
+    public static void write(File file, String UID, String baseUID) {
+        if (exists(UID)) {
+            return;
+        }
+        if (baseUID != null && file.length() <= Delta.MAX_SIZE && exists(baseUID)) {
+            byte[] delta = Delta.create(baseUID, Utils.readContents(file));
+            if (delta != null) {
+                if (!Delta.DELTA_FOLDER.exists()) {
+                    Delta.DELTA_FOLDER.mkdir();
+                }
+                Durable.writeIfAbsent(new File(Delta.DELTA_FOLDER, UID), delta);
+                return;
+            }
+        }
+        write(file, UID);
+    }
+
+    /**
+     True if blob UID is stored.
+     */
+    public static boolean exists(String UID) {
+        return UID != null && (new File(BLOB_FOLDER, UID).exists()
+                || new File(Delta.DELTA_FOLDER, UID).exists() || Pack.contains(UID));
+    }
+
+    /**
+     Returns how many deltas deep blob UID is stored; 0 if it is whole.
+     */
+    public static int depth(String UID) {
+        File delta = new File(Delta.DELTA_FOLDER, UID);
+        if (delta.exists()) {
+            return Delta.depthOf(Utils.readContents(delta));
+        }
+        Pack.Entry entry = Pack.find(UID);
+        if (entry != null && entry.type == Pack.DELTA) {
+            return Delta.depthOf(Pack.readAll(UID));
+        }
+        return 0;
+    }
+
+    /**
+     Returns the length of blob UID in bytes. Only a loose blob knows it
+     without being read through.
+     */
+    public static long size(String UID) {
+        File loose = new File(BLOB_FOLDER, UID);
+        if (loose.exists()) {
+            return loose.length();
+        }
+        try (InputStream in = open(UID)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Reads the whole of blob UID into memory. The bytes may be shared
+     through the object cache, so they must not be modified.
+     */
+    public static byte[] readAll(String UID) {
+        byte[] contents = ObjectCache.get(ObjectCache.BLOB, UID);
+        if (contents != null) {
+            return contents;
+        }
+        try (InputStream in = open(UID)) {
+            contents = in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectCache.put(ObjectCache.BLOB, UID, contents, contents.length);
+        return contents;
+    }
+
+    /**
+     Opens a stream over the bytes of blob UID, loose or packed, whole or
+     rebuilt from its delta chain.
+     */
+    public static InputStream open(String UID) throws IOException {
+        Trace.Counter.OBJECTS_READ.add(1);
+        File loose = new File(BLOB_FOLDER, UID);
+        if (loose.exists()) {
+            return Files.newInputStream(loose.toPath());
+        }
+        File delta = new File(Delta.DELTA_FOLDER, UID);
+        if (delta.exists()) {
+            return new ByteArrayInputStream(Delta.apply(Utils.readContents(delta)));
+        }
+        Pack.Entry entry = Pack.find(UID);
+        if (entry != null && entry.type == Pack.DELTA) {
+            return new ByteArrayInputStream(Delta.apply(Pack.readAll(UID)));
+        }
+        if (entry == null && Remote.prefetch(Collections.singleton(UID))) {
+            return open(UID);
+        }
+        return Pack.open(UID);
+    }
+
+    /**
+     Writes the bytes of blob UID to DEST, replacing it.
+     */
+    public static void restore(String UID, File dest) {
+        File loose = new File(BLOB_FOLDER, UID);
+        try {
+            if (loose.exists()) {
+                Trace.Counter.OBJECTS_READ.add(1);
+                Files.copy(loose.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (InputStream in = open(UID)) {
+                    Files.copy(in, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /**
-     _contents contains file contents.
+     _hash is the SHA-1 of the blob's bytes.
      */
-    private String _contents;
+    private String _hash;
 }
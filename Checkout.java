@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checkout engine. Compares the files of two commits by blob hash, so files
+ * both commits hold the same are not touched or even looked at, then
+ * deletes and writes the rest on a bounded pool of I/O threads, skipping
+ * files that already hold the right contents.
+ * @author victorcruz
+ */
+public class Checkout {
+    /** Most working files written at the same time. */
+    static final int IO_THREADS =
+            Math.max(1, Math.min(16, 2 * Runtime.getRuntime().availableProcessors()));
+
+    /**
+     Makes the working directory hold the files of TO, given that it holds
+     the files of FROM. Files only FROM tracks are deleted; files TO holds
+     differently from FROM are written unless the working copy already has
+     the right hash; files both hold the same are left as they are. Blobs a
+     partial clone lacks are fetched first, in one batch.
+     */
+    public static void materialize(Map<String, String> from, Map<String, String> to) {
+        if (Remote.PROMISOR_FILE.exists()) {
+            List<String> absent = new ArrayList<>();
+            for (Map.Entry<String, String> entry : to.entrySet()) {
+                File file = new File(Main.CWD, entry.getKey());
+                if (!entry.getValue().equals(from.get(entry.getKey()))
+                        && !Blob.exists(entry.getValue())
+                        && !(file.isFile() && StatCache.get().hash(file).equals(entry.getValue()))) {
+                    absent.add(entry.getValue());
+                }
+            }
+            Remote.prefetch(absent);
+        }
+        List<Runnable> tasks = new ArrayList<>();
+        for (String fileName : from.keySet()) {
+            if (!to.containsKey(fileName)) {
+                tasks.add(() -> {
+                    File deleteFile = new File(Main.CWD, fileName);
+                    if (deleteFile.exists()) {
+                        deleteFile.delete();
+                    }
+                });
+            }
+        }
+        for (Map.Entry<String, String> entry : to.entrySet()) {
+            if (entry.getValue().equals(from.get(entry.getKey()))) {
+                continue;
+            }
+            tasks.add(() -> write(entry.getValue(), new File(Main.CWD, entry.getKey())));
+        }
+        Trace.Phase phase = Trace.phase("materialize");
+        try {
+            run(tasks);
+        } finally {
+            phase.end();
+        }
+    }
+
+    /**
+     Writes blob UID to working file FILE unless FILE already holds it.
+     */
+    public static void write(String UID, File file) {
+        if (file.isFile() && StatCache.get().hash(file).equals(UID)) {
+            return;
+        }
+        Main.restoreFile(UID, file);
+    }
+
+    /**
+     Runs TASKS on the I/O pool and waits for all of them.
+     */
+    private static void run(List<Runnable> tasks) {
+        if (tasks.size() <= 1) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(IO_THREADS, tasks.size()));
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (Runnable task : tasks) {
+                pending.add(pool.submit(task));
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
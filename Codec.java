@@ -0,0 +1,325 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact, versioned binary format for commits and trees. Strings are
+ * varint-length-prefixed UTF-8, timestamps are zigzag varint epoch millis
+ * plus a zone id, and object ids are raw 20-byte hashes. Objects written by
+ * older versions with Java serialization are still read.
+ *
+ * Commit: 'C' version id message millis zone parentCount parents... tree
+ * Tree:   'T' version leaf size count (name id)...
+ * @author victorcruz
+ */
+public class Codec {
+    /** Marks the repository as using this format; written by init. */
+    static final File VERSION_FILE = new File(Main.GITLET_DIR, "version");
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    private static final int COMMIT = 'C';
+    private static final int TREE = 'T';
+    /** First byte of a Java serialization stream. */
+    private static final int JAVA_SERIALIZED = 0xAC;
+    private static final int ID_LENGTH = 20;
+
+    /**
+     Commit fields that precede its tree.
+     */
+    static class Header {
+        final String id;
+        final String message;
+        final ZonedDateTime timestamp;
+        final String[] parents;
+
+        Header(String id, String message, ZonedDateTime timestamp, String[] parents) {
+            this.id = id;
+            this.message = message;
+            this.timestamp = timestamp;
+            this.parents = parents;
+        }
+    }
+
+    /**
+     Returns the encoding of COMMIT.
+     */
+    public static byte[] encode(Commit commit) {
+        String tree = commit.getTree();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(COMMIT);
+        out.write(VERSION);
+        out.write(Pack.toBytes(commit.getId()), 0, ID_LENGTH);
+        writeString(out, commit.getMessage());
+        writeSigned(out, commit.getTimeStamp().toInstant().toEpochMilli());
+        writeString(out, commit.getTimeStamp().getZone().getId());
+        String[] parents = parentsOf(commit);
+        out.write(parents.length);
+        for (String parent : parents) {
+            out.write(Pack.toBytes(parent), 0, ID_LENGTH);
+        }
+        out.write(Pack.toBytes(tree), 0, ID_LENGTH);
+        return out.toByteArray();
+    }
+
+    /**
+     Returns the encoding of TREE.
+     */
+    public static byte[] encode(Tree tree) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(TREE);
+        out.write(VERSION);
+        out.write(tree.isLeaf() ? 1 : 0);
+        Delta.writeVarint(out, tree.size());
+        Delta.writeVarint(out, tree.entries().size());
+        for (Map.Entry<String, String> entry : tree.entries().entrySet()) {
+            writeString(out, entry.getKey());
+            out.write(Pack.toBytes(entry.getValue()), 0, ID_LENGTH);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     Writes COMMIT to FILE unless it is already stored.
+     */
+    public static void writeCommit(File file, Commit commit) {
+        Durable.writeIfAbsent(file, encode(commit));
+    }
+
+    /**
+     Reads the commit in FILE.
+     */
+    public static Commit readCommit(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return readCommit(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Reads a commit from IN, in either format.
+     */
+    public static Commit readCommit(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        data.mark(1);
+        if (data.read() == JAVA_SERIALIZED) {
+            data.reset();
+            return readSerialized(data, Commit.class);
+        }
+        Header header = readHeaderBody(data);
+        String tree = readId(data);
+        return new Commit(header, tree);
+    }
+
+    /**
+     Reads only the header of the commit in IN, stopping before its tree.
+     Commits in the old format are read whole.
+     */
+    public static Header readHeader(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        data.mark(1);
+        if (data.read() == JAVA_SERIALIZED) {
+            data.reset();
+            Commit commit = readSerialized(data, Commit.class);
+            return new Header(null, commit.getMessage(), commit.getTimeStamp(),
+                    parentsOf(commit));
+        }
+        return readHeaderBody(data);
+    }
+
+    /**
+     Reads a tree from IN, in either format.
+     */
+    public static Tree readTree(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        data.mark(1);
+        int kind = data.read();
+        if (kind == JAVA_SERIALIZED) {
+            data.reset();
+            return readSerialized(data, Tree.class);
+        }
+        if (kind != TREE) {
+            throw new IOException("Not a tree.");
+        }
+        checkVersion(data);
+        boolean leaf = data.read() == 1;
+        int size = (int) readVarint(data);
+        int count = (int) readVarint(data);
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = readString(data);
+            entries.put(name, readId(data));
+        }
+        return new Tree(leaf, entries, size);
+    }
+
+    private static Header readHeaderBody(DataInputStream data) throws IOException {
+        checkVersion(data);
+        String id = readId(data);
+        String message = readString(data);
+        long millis = readSigned(data);
+        ZoneId zone = ZoneId.of(readString(data));
+        String[] parents = new String[data.read()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = readId(data);
+        }
+        return new Header(id, message,
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), zone), parents);
+    }
+
+    private static void checkVersion(DataInputStream data) throws IOException {
+        int version = data.read();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported object version " + version);
+        }
+    }
+
+    private static String[] parentsOf(Commit commit) {
+        if (commit.getParent() == null) {
+            return new String[0];
+        } else if (commit.getSecondParent() == null) {
+            return new String[] {commit.getParent()};
+        }
+        return new String[] {commit.getParent(), commit.getSecondParent()};
+    }
+
+    /**
+     Brings a repository written by an older version up to this format:
+     blobs saved as serialized String-backed objects are rewritten as raw
+     bytes. Commits and trees in the old format stay readable and are left
+     as they are. Runs once per repository.
+     */
+    public static void migrate() {
+        if (VERSION_FILE.exists()) {
+            return;
+        }
+        List<String> blobs = Trace.list(Blob.BLOB_FOLDER);
+        if (blobs != null) {
+            for (String UID : blobs) {
+                migrateBlob(new File(Blob.BLOB_FOLDER, UID));
+            }
+        }
+        Durable.write(VERSION_FILE, Integer.toString(VERSION).getBytes(StandardCharsets.UTF_8));
+        Durable.sync();
+    }
+
+    /**
+     Rewrites FILE as raw bytes if it is a legacy serialized blob. A file is
+     only treated as legacy if its raw bytes do not already hash to its name
+     and its decoded contents do.
+     */
+    private static void migrateBlob(File file) {
+        byte[] head = new byte[2];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            if (in.read(head) != 2 || (head[0] & 0xff) != 0xAC || (head[1] & 0xff) != 0xED) {
+                return;
+            }
+        } catch (IOException excp) {
+            return;
+        }
+        if (Blob.hash(file).equals(file.getName())) {
+            return;
+        }
+        byte[] contents;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            contents = readSerialized(in, LegacyBlob.class)._contents
+                    .getBytes(StandardCharsets.UTF_8);
+        } catch (IOException | IllegalArgumentException excp) {
+            return;
+        }
+        if (!Utils.sha1(contents).equals(file.getName())) {
+            return;
+        }
+        Durable.write(file, contents);
+    }
+
+    /**
+     Shape of blobs written before blobs were stored as raw bytes.
+     */
+    private static class LegacyBlob implements Serializable {
+        private static final long serialVersionUID = -4177964613357062382L;
+        private String _contents;
+    }
+
+    private static <T extends Serializable> T readSerialized(InputStream in, Class<T> expected)
+            throws IOException {
+        ObjectInputStream objects = new ObjectInputStream(in) {
+            @Override
+            protected ObjectStreamClass readClassDescriptor()
+                    throws IOException, ClassNotFoundException {
+                ObjectStreamClass desc = super.readClassDescriptor();
+                if (expected == LegacyBlob.class && desc.getName().equals("gitlet.Blob")) {
+                    return ObjectStreamClass.lookup(LegacyBlob.class);
+                }
+                return desc;
+            }
+        };
+        try {
+            return expected.cast(objects.readObject());
+        } catch (ClassNotFoundException | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        Delta.writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeSigned(ByteArrayOutputStream out, long value) {
+        Delta.writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readSigned(DataInputStream in) throws IOException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[ID_LENGTH];
+        in.readFully(id);
+        return Blob.toHex(id);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
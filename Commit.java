@@ -1,5 +1,7 @@
 package gitlet;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
 import java.time.*;
 import java.io.File;
@@ -9,19 +11,36 @@ import java.io.File;
  */
 
 public class Commit implements Serializable {
+    /** Matches commits written before fields were added. */
+    private static final long serialVersionUID = 7289752574697132210L;
     /** Folder that commits live in.*/
     static final File COMMITS_FOLDER = new File(Main.GITLET_DIR,"commits");
     private String _message;
 
     private ZonedDateTime _timestamp;
     private String _parent;
+    /** Branch merged in, for merge commits only. */
+    private String _secondParent;
     /**
      Datastructure with:
      Key: filename.
      Value: blob hash.
-
+     Only set in commits written before trees; newer commits use _tree.
      */
     private LinkedHashMap <String, String> _blobs;
+    /** Id of the tree holding this commit's files. */
+    private String _tree;
+    /**
+     Files changed since this commit was built from its tree.
+     Key: filename.
+     Value: new blob hash, or null if removed.
+     */
+    private transient TreeMap<String, String> _changes;
+    /**
+     This commit's UID, computed once and saved with the commit. Null while
+     the commit is being built.
+     */
+    private String _id;
 
     /**
      Constructor.
@@ -30,47 +49,122 @@ public class Commit implements Serializable {
             _message = message;
             _parent = parent;
             _timestamp = time;
-            _blobs = blob;
+            _changes = new TreeMap<>(blob);
+    }
+    /**
+     Constructor for a commit read back with HEADER and TREE.
+     */
+    Commit(Codec.Header header, String tree) {
+        _message = header.message;
+        _timestamp = header.timestamp;
+        _parent = header.parents.length > 0 ? header.parents[0] : null;
+        _secondParent = header.parents.length > 1 ? header.parents[1] : null;
+        _tree = tree;
+        _id = header.id;
     }
     /**
      Change message after cloning last commit.
      */
     public void changeMessage(String newMessage) {
         _message = newMessage;
+        _id = null;
     }
     /**
      Change parent pointer after cloning last commit.
      */
     public void changeParent(String newParent) {
         _parent = newParent;
+        _id = null;
+    }
+    /**
+     Record the merged-in branch head after cloning last commit.
+     */
+    public void changeSecondParent(String newParent) {
+        _secondParent = newParent;
+        _id = null;
     }
     /**
      Change file pointers after cloning last commit.
      */
     public void add_replaceBlob(String fileName, String blob) {
-        if (_blobs.containsKey(fileName)) {
-            _blobs.replace(fileName, blob);
-        } else {
-            _blobs.put(fileName, blob);
-        }
+        changes().put(fileName, blob);
+        _id = null;
     }
     /**
      Change timestamp after cloning last commit.
      */
     public void changeTime(ZonedDateTime newTime) {
         _timestamp = newTime;
+        _id = null;
     }
     /**
      Removing blobs is useful during commits.
      */
     public void removeBlob(String file_name) {
-        _blobs.remove(file_name);
+        changes().put(file_name, null);
+        _id = null;
     }
     /**
-     Returns a copy of this commit.
+     Returns a copy of this commit. The copy shares this commit's tree, so
+     no file map is copied.
      */
     public Commit clone() {
-        return new Commit(getMessage(), getParent(), getBlobs(), getTimeStamp());
+        Commit copy = new Commit(getMessage(), getParent(), new LinkedHashMap<>(), getTimeStamp());
+        copy._tree = getTree();
+        return copy;
+    }
+    /**
+     Retrieve the id of the tree holding this commit's files, writing any
+     changed buckets first. Commits from before trees get one written.
+     */
+    public String getTree() {
+        if (_tree == null && _blobs != null) {
+            _tree = Tree.write(_blobs);
+        } else if (_tree == null || (_changes != null && !_changes.isEmpty())) {
+            _tree = Tree.update(_tree, changes());
+        }
+        _changes = null;
+        return _tree;
+    }
+    /**
+     Retrieve this commit's UID, hashing it on first use.
+     */
+    public String getId() {
+        if (_id == null) {
+            _id = computeId();
+        }
+        return _id;
+    }
+    /**
+     Record UID as this commit's id. Used when reading a commit back, since
+     commits written by older versions were named by a different hash.
+     */
+    void assignId(String UID) {
+        _id = UID;
+    }
+    /**
+     SHA-1 of a canonical encoding: each field length-prefixed, and the files
+     represented by their tree id, so hashing costs the same for any size.
+     */
+    private String computeId() {
+        MessageDigest md = Blob.newDigest();
+        hashField(md, "commit");
+        hashField(md, _message);
+        hashField(md, _parent);
+        hashField(md, _secondParent);
+        hashField(md, _timestamp.toString());
+        hashField(md, getTree());
+        return Blob.toHex(md.digest());
+    }
+    /**
+     Adds FIELD to MD prefixed by its length, -1 standing for null.
+     */
+    static void hashField(MessageDigest md, String field) {
+        byte[] bytes = field == null ? new byte[0] : field.getBytes(StandardCharsets.UTF_8);
+        int length = field == null ? -1 : bytes.length;
+        md.update(new byte[] {(byte) (length >>> 24), (byte) (length >>> 16),
+            (byte) (length >>> 8), (byte) length});
+        md.update(bytes);
     }
     /**
      Retrieve message.
@@ -90,10 +184,66 @@ public class Commit implements Serializable {
     public String getParent() {
         return _parent;
     }
+    /**
+     Retrive second parent pointer, or null unless this is a merge commit.
+     */
+    public String getSecondParent() {
+        return _secondParent;
+    }
     /**
      Retrieve file pointers.
      */
     public LinkedHashMap <String, String> getBlobs() {
-        return new LinkedHashMap<>(_blobs);
+        LinkedHashMap<String, String> result;
+        if (_blobs != null) {
+            result = new LinkedHashMap<>(_blobs);
+        } else if (_tree != null) {
+            result = Tree.read(_tree);
+        } else {
+            result = new LinkedHashMap<>();
+        }
+        if (_changes != null) {
+            for (Map.Entry<String, String> change : _changes.entrySet()) {
+                if (change.getValue() == null) {
+                    result.remove(change.getKey());
+                } else {
+                    result.put(change.getKey(), change.getValue());
+                }
+            }
+        }
+        return result;
+    }
+    /**
+     Retrieve the blob hash of FILENAME, or null if it is not tracked. Reads
+     at most one tree bucket.
+     */
+    public String getBlob(String fileName) {
+        if (_changes != null && _changes.containsKey(fileName)) {
+            return _changes.get(fileName);
+        }
+        if (_blobs != null) {
+            return _blobs.get(fileName);
+        }
+        return _tree == null ? null : Tree.lookup(_tree, fileName);
+    }
+    /**
+     True if this commit tracks FILENAME.
+     */
+    public boolean containsBlob(String fileName) {
+        return getBlob(fileName) != null;
+    }
+    /**
+     Retrieve the files that differ between this commit and OTHER.
+     Key: filename.
+     Value: its blob hash here and in OTHER, either null if absent.
+     */
+    public TreeMap<String, String[]> diff(Commit other) {
+        return Tree.diff(getTree(), other.getTree());
+    }
+    private TreeMap<String, String> changes() {
+        if (_changes == null) {
+            _changes = new TreeMap<>();
+        }
+        return _changes;
     }
 }
@@ -0,0 +1,450 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Commit graph index. Maps every commit UID to its parents, generation,
+ * timestamp and message so existence, parent and merge-base queries never
+ * touch the commits folder. Stored as an append-only file of records, read
+ * once per process.
+ * @author victorcruz
+ */
+public class CommitGraph {
+    /** File the graph records are appended to. */
+    static final File GRAPH_FILE = new File(Main.GITLET_DIR, "commit-graph");
+
+    /**
+     Commits of a shallow clone whose parents were left out; the graph
+     treats them as root commits.
+     */
+    static final File SHALLOW_FILE = new File(Main.GITLET_DIR, "shallow");
+
+    /** First four bytes of a graph file with generation numbers. */
+    private static final int GRAPH_MAGIC = 0x47524832;
+
+    /** Flag of commits reachable from the first merge-base tip. */
+    private static final int FROM_FIRST = 1;
+    /** Flag of commits reachable from the second merge-base tip. */
+    private static final int FROM_SECOND = 2;
+
+    /**
+     One commit in the graph.
+     */
+    static class Node {
+        /** Parent UIDs, first parent first. */
+        final String[] parents;
+        /** 1 for a root commit, otherwise one more than its highest parent. */
+        int generation;
+        /** Commit time in epoch milliseconds. */
+        final long timestamp;
+        /** Commit message. */
+        final String message;
+
+        Node(String[] parents, int generation, long timestamp, String message) {
+            this.parents = parents;
+            this.generation = generation;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+    }
+
+    private CommitGraph() {
+        _nodes = new HashMap<>();
+    }
+
+    /**
+     Returns the graph for this process, loading it on first use. Repositories
+     created before the graph existed, or before it stored generations, get it
+     rebuilt from their commits.
+     */
+    public static CommitGraph get() {
+        if (_graph == null) {
+            Trace.Phase phase = Trace.phase("graph-load");
+            try {
+                _graph = new CommitGraph();
+                if (!GRAPH_FILE.exists() || !_graph.load()) {
+                    _graph._nodes.clear();
+                    _graph.rebuild();
+                }
+            } finally {
+                phase.end();
+            }
+        }
+        return _graph;
+    }
+
+    /**
+     Drops the graph loaded by this process, so the next get() reads it again.
+     */
+    static void reset() {
+        _graph = null;
+        _grafts = null;
+    }
+
+    /**
+     Records commits UIDS as grafted: their parents are not in this
+     repository and the graph gives them none. Must precede adding them.
+     */
+    static void graft(Collection<String> UIDs) {
+        if (UIDs.isEmpty()) {
+            return;
+        }
+        TreeSet<String> grafts = new TreeSet<>(grafts());
+        grafts.addAll(UIDs);
+        Durable.write(SHALLOW_FILE, String.join("\n", grafts).getBytes(StandardCharsets.UTF_8));
+        _grafts = grafts;
+    }
+
+    /**
+     True if commit UID is grafted.
+     */
+    static boolean isGrafted(String UID) {
+        return grafts().contains(UID);
+    }
+
+    private static Set<String> grafts() {
+        if (_grafts == null) {
+            _grafts = new HashSet<>();
+            if (SHALLOW_FILE.exists()) {
+                for (String UID : Utils.readContentsAsString(SHALLOW_FILE).split("\n")) {
+                    if (!UID.isEmpty()) {
+                        _grafts.add(UID);
+                    }
+                }
+            }
+        }
+        return _grafts;
+    }
+
+    /**
+     True if UID names a commit in this repository.
+     */
+    public boolean contains(String UID) {
+        return UID != null && _nodes.containsKey(UID);
+    }
+
+    /**
+     Retrieve the node for UID, or null.
+     */
+    public Node getNode(String UID) {
+        return _nodes.get(UID);
+    }
+
+    /**
+     Retrieve the parents of UID, or an empty array for the initial commit.
+     */
+    public String[] getParents(String UID) {
+        Node node = _nodes.get(UID);
+        return node == null ? new String[0] : node.parents;
+    }
+
+    /**
+     Retrieve the generation number of UID, or 0 if it is unknown.
+     */
+    public int getGeneration(String UID) {
+        Node node = _nodes.get(UID);
+        return node == null ? 0 : node.generation;
+    }
+
+    /**
+     Number of commits in the graph.
+     */
+    public int size() {
+        return _nodes.size();
+    }
+
+    /**
+     Retrieve every commit UID, sorted.
+     */
+    public List<String> getUIDs() {
+        List<String> result = new ArrayList<>(_nodes.keySet());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     Records a newly written commit, appending it to the graph file and the
+     message index. Its parents must already be in the graph.
+     */
+    public void add(String UID, Commit commit) {
+        if (_nodes.containsKey(UID)) {
+            return;
+        }
+        Node node = toNode(UID, commit);
+        for (String parent : node.parents) {
+            node.generation = Math.max(node.generation, getGeneration(parent) + 1);
+        }
+        _nodes.put(UID, node);
+        boolean fresh = !GRAPH_FILE.exists();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(GRAPH_FILE, true)))) {
+            if (fresh) {
+                out.writeInt(GRAPH_MAGIC);
+            }
+            writeRecord(out, UID, node);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durable.appended(GRAPH_FILE);
+        MessageIndex.add(UID, node.message);
+    }
+
+    /**
+     Returns the best common ancestor of commits FIRST and SECOND, or null if
+     they share no history. Walks both histories at once over all parents,
+     highest generation first, so every descendant of a commit is visited
+     before it and the first commit reached from both tips is the answer.
+     */
+    public String mergeBase(String first, String second) {
+        if (first.equals(second)) {
+            return first;
+        }
+        HashMap<String, Integer> flags = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(
+                Comparator.comparingInt(this::getGeneration).reversed());
+        flags.put(first, FROM_FIRST);
+        flags.put(second, FROM_SECOND);
+        queue.add(first);
+        queue.add(second);
+        while (!queue.isEmpty()) {
+            String UID = queue.poll();
+            int flag = flags.get(UID);
+            if (flag == (FROM_FIRST | FROM_SECOND)) {
+                return UID;
+            }
+            for (String parent : getParents(UID)) {
+                Integer seen = flags.get(parent);
+                if (seen == null) {
+                    flags.put(parent, flag);
+                    queue.add(parent);
+                } else if ((seen | flag) != seen) {
+                    queue.remove(parent);
+                    flags.put(parent, seen | flag);
+                    queue.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Node toNode(String UID, Commit commit) {
+        String[] parents;
+        if (commit.getParent() == null || isGrafted(UID)) {
+            parents = new String[0];
+        } else if (commit.getSecondParent() == null) {
+            parents = new String[] {commit.getParent()};
+        } else {
+            parents = new String[] {commit.getParent(), commit.getSecondParent()};
+        }
+        return new Node(parents, 1, commit.getTimeStamp().toInstant().toEpochMilli(),
+                commit.getMessage());
+    }
+
+    /**
+     Reads the graph file; false if it predates generation numbers. A torn
+     trailing record, left by a crash during an append, is cut off so the
+     next append starts on a record boundary.
+     */
+    private boolean load() {
+        long length = GRAPH_FILE.length();
+        if (length < 4) {
+            return false;
+        }
+        long valid = 4;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(GRAPH_FILE)))) {
+            if (in.readInt() != GRAPH_MAGIC) {
+                return false;
+            }
+            while (true) {
+                String UID;
+                try {
+                    UID = readString(in);
+                } catch (EOFException excp) {
+                    break;
+                }
+                String[] parents = new String[in.readUnsignedByte()];
+                for (int i = 0; i < parents.length; i++) {
+                    parents[i] = readString(in);
+                }
+                int generation = in.readInt();
+                long timestamp = in.readLong();
+                String message = readString(in);
+                Node node = new Node(parents, generation, timestamp, message);
+                _nodes.put(UID, node);
+                valid += recordLength(UID, node);
+            }
+        } catch (EOFException excp) {
+            // A torn trailing record from an interrupted append.
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (valid < length && !Lock.isShared()) {
+            try (FileChannel channel = FileChannel.open(GRAPH_FILE.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void rebuild() {
+        List<String> commits = new ArrayList<>();
+        List<String> loose = Trace.list(Commit.COMMITS_FOLDER);
+        if (loose != null) {
+            for (String UID : loose) {
+                if (UID.length() == 2 * Pack.ID_LENGTH) {
+                    commits.add(UID);
+                }
+            }
+        }
+        Set<String> packed = new HashSet<>(Pack.ids(Pack.COMMIT));
+        commits.addAll(packed);
+        for (String UID : commits) {
+            Commit commit;
+            if (packed.contains(UID)) {
+                try (InputStream in = Pack.open(UID)) {
+                    commit = Codec.readCommit(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            } else {
+                commit = Codec.readCommit(new File(Commit.COMMITS_FOLDER, UID));
+            }
+            _nodes.put(UID, toNode(UID, commit));
+        }
+        computeGenerations();
+        List<String> order = new ArrayList<>(_nodes.keySet());
+        order.sort(Comparator.comparingInt(this::getGeneration));
+        if (Lock.isShared()) {
+            return;
+        }
+        try {
+            Path temp = Durable.tempFor(GRAPH_FILE);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+                out.writeInt(GRAPH_MAGIC);
+                for (String UID : order) {
+                    writeRecord(out, UID, _nodes.get(UID));
+                }
+            }
+            Durable.install(temp, GRAPH_FILE);
+            Durable.sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Sets every node's generation, visiting parents before children without
+     recursing, since histories can be far deeper than the call stack.
+     */
+    private void computeGenerations() {
+        HashMap<String, Boolean> done = new HashMap<>();
+        for (String start : _nodes.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String UID = stack.peek();
+                if (done.containsKey(UID)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : getParents(UID)) {
+                    if (_nodes.containsKey(parent) && !done.containsKey(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    Node node = _nodes.get(UID);
+                    node.generation = 1;
+                    for (String parent : node.parents) {
+                        node.generation = Math.max(node.generation, getGeneration(parent) + 1);
+                    }
+                    done.put(UID, true);
+                    stack.pop();
+                }
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String UID, Node node)
+            throws IOException {
+        writeString(out, UID);
+        out.writeByte(node.parents.length);
+        for (String parent : node.parents) {
+            writeString(out, parent);
+        }
+        out.writeInt(node.generation);
+        out.writeLong(node.timestamp);
+        writeString(out, node.message == null ? "" : node.message);
+    }
+
+    /**
+     Bytes writeRecord uses for UID's NODE.
+     */
+    private static long recordLength(String UID, Node node) {
+        long length = stringLength(UID) + 1 + 4 + 8 + stringLength(node.message);
+        for (String parent : node.parents) {
+            length += stringLength(parent);
+        }
+        return length;
+    }
+
+    private static long stringLength(String s) {
+        return 4 + (s == null ? 0 : s.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Grafted commits, once read. */
+    private static Set<String> _grafts;
+
+    /** Graph loaded by this process. */
+    private static CommitGraph _graph;
+
+    /**
+     Key: commit UID.
+     Value: its graph node.
+     */
+    private HashMap<String, Node> _nodes;
+}
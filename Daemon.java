@@ -0,0 +1,304 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Long-running server that runs gitlet commands for one repository over a
+ * Unix domain socket, so the commit graph, staging area, stat cache, packs
+ * and trees stay loaded between commands. Commands are run one at a time
+ * through Main.main, each under the repository lock. Cached state is dropped
+ * whenever a file behind it was changed by another process, and after any
+ * command that ends early.
+ *
+ * Request:  argument count, then each argument as length and UTF-8 bytes.
+ * Response: frames of a type byte, a length and that many bytes of output
+ *           or error text, ended by an EXIT frame holding the exit status.
+ * @author victorcruz
+ */
+public class Daemon {
+    /** Socket the daemon listens on. */
+    static final File SOCKET = new File(Main.GITLET_DIR, "daemon.sock");
+
+    private static final byte OUT = 1;
+    private static final byte ERR = 2;
+    private static final byte EXIT = 3;
+
+    /**
+     Thrown by Main.exit while serving, to end a command without ending
+     the daemon.
+     */
+    static class Exit extends RuntimeException {
+        private static final long serialVersionUID = -4177767333147049952L;
+
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     True while this process is running a command for a client.
+     */
+    static boolean isServing() {
+        return _serving;
+    }
+
+    /**
+     Handles "daemon" to serve this repository until stopped, and
+     "daemon stop" to stop a running daemon.
+     */
+    public static void command(String[] args) {
+        if (_serving) {
+            System.out.println("A daemon is already running.");
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            if (forward(args) == null) {
+                System.out.println("No daemon is running.");
+            }
+        } else if (args.length == 1) {
+            serve();
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     Sends ARGS to the daemon of this repository and copies its output to
+     System.out and System.err. Returns the command's exit status, or null
+     if no daemon is listening.
+     */
+    public static Integer forward(String[] args) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                request.writeInt(bytes.length);
+                request.write(bytes);
+            }
+            request.flush();
+            DataInputStream response = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                byte type = response.readByte();
+                int length = response.readInt();
+                if (type == EXIT) {
+                    System.out.flush();
+                    return length;
+                }
+                byte[] bytes = new byte[length];
+                response.readFully(bytes);
+                (type == ERR ? System.err : System.out).write(bytes);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void serve() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath())).close();
+            System.out.println("A daemon is already running.");
+            return;
+        } catch (IOException excp) {
+            SOCKET.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Files.setPosixFilePermissions(SOCKET.toPath(),
+                    PosixFilePermissions.fromString("rw-------"));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            Trace.register();
+            stamp();
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    if (!handle(client)) {
+                        break;
+                    }
+                } catch (IOException excp) {
+                    // The client went away; serve the next one.
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     Runs one request from CLIENT. Returns false if it asked the daemon to
+     stop.
+     */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream request = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            byte[] bytes = new byte[request.readInt()];
+            request.readFully(bytes);
+            args[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        DataOutputStream response = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client), Main.OUTPUT_BUFFER));
+        boolean stop = Arrays.equals(args, new String[] {"daemon", "stop"});
+        int status = stop ? 0 : run(args, response);
+        response.writeByte(EXIT);
+        response.writeInt(status);
+        response.flush();
+        return !stop;
+    }
+
+    /**
+     Runs ARGS through Main.main with its output framed onto RESPONSE, and
+     returns its exit status. The repository lock is held from checking
+     the cached state until it is stamped again, so no other process can
+     change the repository unseen in between.
+     */
+    static int run(String[] args, DataOutputStream response) {
+        if (Main.GITLET_DIR.exists()) {
+            int first = args.length > 1 && args[0].equals(Trace.FLAG) ? 1 : 0;
+            String[] command = Arrays.copyOfRange(args, first, args.length);
+            Lock.acquire(command.length > 0 ? command[0] : "", Remote.peers(command));
+        }
+        if (changed()) {
+            reset();
+        }
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream framedOut = new PrintStream(new BufferedOutputStream(
+                new FrameStream(response, OUT), Main.OUTPUT_BUFFER), false, StandardCharsets.UTF_8);
+        PrintStream framedErr = new PrintStream(new FrameStream(response, ERR), false,
+                StandardCharsets.UTF_8);
+        System.setOut(framedOut);
+        System.setErr(framedErr);
+        _serving = true;
+        int status = 0;
+        try {
+            Main.main(args);
+        } catch (Exit excp) {
+            reset();
+        } catch (RuntimeException | Error excp) {
+            reset();
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            _serving = false;
+            framedOut.flush();
+            framedErr.flush();
+            System.setOut(out);
+            System.setErr(err);
+        }
+        Durable.sync();
+        stamp();
+        Lock.releaseAll();
+        return status;
+    }
+
+    /**
+     Drops everything loaded from the repository, so the next command reads
+     it again.
+     */
+    private static void reset() {
+        CommitGraph.reset();
+        Stage.reset();
+        StatCache.reset();
+        Pack.reset();
+    }
+
+    /**
+     Records the size and modification time of the files behind cached
+     state.
+     */
+    private static void stamp() {
+        _stamps.clear();
+        for (File file : watched()) {
+            _stamps.put(file, stampOf(file));
+        }
+    }
+
+    /**
+     True if a file behind cached state changed since the last stamp.
+     */
+    private static boolean changed() {
+        for (File file : watched()) {
+            if (!stampOf(file).equals(_stamps.get(file))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static File[] watched() {
+        return new File[] {CommitGraph.GRAPH_FILE, Stage.STAGE_FILE, StatCache.INDEX_FILE,
+            Pack.PACK_DIR};
+    }
+
+    private static String stampOf(File file) {
+        return file.exists() ? file.length() + ":" + file.lastModified() : "";
+    }
+
+    /**
+     Output stream that writes each chunk it is given as one frame.
+     */
+    private static class FrameStream extends OutputStream {
+        FrameStream(DataOutputStream response, byte type) {
+            _response = response;
+            _type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > 0) {
+                _response.writeByte(_type);
+                _response.writeInt(length);
+                _response.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _response.flush();
+        }
+
+        private final DataOutputStream _response;
+        private final byte _type;
+    }
+
+    /** True while a command is being run for a client. */
+    private static boolean _serving;
+
+    /**
+     Key: file behind cached state.
+     Value: its size and modification time when last stamped.
+     */
+    private static final Map<File, String> _stamps = new HashMap<>();
+}
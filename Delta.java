@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Binary deltas between successive versions of a file. A delta names its
+ * base blob and rebuilds the target from COPY runs out of the base and
+ * INSERT runs of literal bytes. Deltas are stored under DELTA_FOLDER by the
+ * id of the blob they rebuild; chains are bounded by MAX_DEPTH.
+ * @author victorcruz
+ */
+public class Delta {
+    /** Folder loose deltas live in. */
+    static final File DELTA_FOLDER = new File(Main.GITLET_DIR, "deltas");
+
+    /** Longest chain of deltas a blob may sit at the end of. */
+    static final int MAX_DEPTH = 10;
+
+    /** Files larger than this are always stored whole; deltas are built on heap. */
+    static final long MAX_SIZE = 1L << 26;
+
+    /** Length of the blocks matches are searched for with. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+    private static final int MAGIC = 0x47444c54;
+    private static final byte COPY = 0;
+    private static final byte INSERT = 1;
+    /** Magic, base id and depth. */
+    private static final int HEADER = 4 + 20 + 1;
+
+    /**
+     Returns a delta rebuilding TARGET from blob BASEUID, or null if the base
+     chain is already MAX_DEPTH long or the delta would not save at least
+     half of TARGET.
+     */
+    public static byte[] create(String baseUID, byte[] target) {
+        int depth = Blob.depth(baseUID) + 1;
+        if (depth > MAX_DEPTH) {
+            return null;
+        }
+        byte[] base = Blob.readAll(baseUID);
+        byte[] delta = encode(base, target, baseUID, depth);
+        if (delta.length > target.length / 2) {
+            return null;
+        }
+        return delta;
+    }
+
+    /**
+     Retrieve the id of the blob DELTA is based on.
+     */
+    public static String baseOf(byte[] delta) {
+        return Blob.toHex(Arrays.copyOfRange(delta, 4, 24));
+    }
+
+    /**
+     Retrieve how many deltas deep DELTA's target sits.
+     */
+    public static int depthOf(byte[] delta) {
+        return delta[24] & 0xff;
+    }
+
+    /**
+     Rebuilds the bytes DELTA describes, reading its base chain.
+     */
+    public static byte[] apply(byte[] delta) {
+        return apply(Blob.readAll(baseOf(delta)), delta);
+    }
+
+    /**
+     Rebuilds the bytes DELTA describes from the bytes BASE of its base.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Corrupt delta.");
+        }
+        in.position(HEADER);
+        byte[] result = new byte[(int) readVarint(in)];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            if (op == COPY) {
+                int offset = (int) readVarint(in);
+                int length = (int) readVarint(in);
+                System.arraycopy(base, offset, result, pos, length);
+                pos += length;
+            } else {
+                int length = (int) readVarint(in);
+                in.get(result, pos, length);
+                pos += length;
+            }
+        }
+        return result;
+    }
+
+    static byte[] encode(byte[] base, byte[] target, String baseUID, int depth) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ByteBuffer.allocate(4).putInt(MAGIC).array(), 0, 4);
+        out.write(Pack.toBytes(baseUID), 0, 20);
+        out.write(depth);
+        writeVarint(out, target.length);
+
+        int[] table = indexBlocks(base);
+        int mask = table.length - 1;
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            power *= PRIME;
+        }
+        int insertStart = 0;
+        int pos = 0;
+        int hash = target.length >= BLOCK ? hashBlock(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            int candidate = table[hash & mask] - 1;
+            if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK,
+                    target, pos, pos + BLOCK)) {
+                int start = pos;
+                int baseStart = candidate;
+                while (start > insertStart && baseStart > 0
+                        && base[baseStart - 1] == target[start - 1]) {
+                    start -= 1;
+                    baseStart -= 1;
+                }
+                int end = pos + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                writeInsert(out, target, insertStart, start);
+                out.write(COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, end - start);
+                insertStart = end;
+                pos = end;
+                if (pos + BLOCK <= target.length) {
+                    hash = hashBlock(target, pos);
+                }
+                continue;
+            }
+            if (pos + BLOCK < target.length) {
+                hash = (hash - target[pos] * power) * PRIME + target[pos + BLOCK];
+            }
+            pos += 1;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     Open-addressed table from block hash to 1 + offset of the block in BASE.
+     */
+    private static int[] indexBlocks(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+        int[] table = new int[size];
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            int slot = hashBlock(base, i) & (size - 1);
+            if (table[slot] == 0) {
+                table[slot] = i + 1;
+            }
+        }
+        return table;
+    }
+
+    private static int hashBlock(byte[] data, int start) {
+        int hash = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            hash = hash * PRIME + data[i];
+        }
+        return hash;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(ByteBuffer in) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
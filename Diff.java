@@ -0,0 +1,499 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Line diff engine and unified diff output. Files are split into lines
+ * without copying their bytes and each distinct line is numbered, so the
+ * diff itself compares ints. Uses Myers' O((N+M)D) algorithm in its
+ * linear-space form, searching for the middle snake from both ends, with an
+ * explicit stack instead of recursion.
+ * @author victorcruz
+ */
+public class Diff {
+    /** Lines of context shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** Fewest edit steps searched before giving up on a minimal diff. */
+    private static final int MIN_COST = 256;
+
+    /**
+     One file that differs. The old side is a blob, or absent; the new side
+     is a blob, a working file, or absent.
+     */
+    static class Change {
+        final String name;
+        final String oldHash;
+        final String newHash;
+        final File newFile;
+
+        Change(String name, String oldHash, String newHash, File newFile) {
+            this.name = name;
+            this.oldHash = oldHash;
+            this.newHash = newHash;
+            this.newFile = newFile;
+        }
+    }
+
+    /**
+     A region where A's lines [aStart, aEnd) were replaced by B's lines
+     [bStart, bEnd). Either range may be empty.
+     */
+    static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /**
+     The lines of one file: where each starts in its bytes, and its number.
+     Every line but possibly the last ends with its newline.
+     */
+    static class Lines {
+        /** The file's bytes. */
+        final byte[] data;
+        /** Start of each line, followed by data.length. */
+        final int[] starts;
+        /** Number of each line; equal lines share a number. */
+        final int[] ids;
+
+        private Lines(byte[] data, int[] starts, int[] ids) {
+            this.data = data;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        /**
+         Number of lines.
+         */
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         True if the file does not end with a newline.
+         */
+        boolean missingFinalNewline() {
+            return data.length > 0 && data[data.length - 1] != '\n';
+        }
+    }
+
+    /**
+     Numbers lines of several files from one table, so lines of any of the
+     files it splits can be compared by number.
+     */
+    static class LineTable {
+        /**
+         Splits DATA into lines numbered by this table.
+         */
+        Lines split(byte[] data) {
+            int count = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            int[] starts = new int[count + 1];
+            int[] ids = new int[count];
+            int line = 0;
+            int start = 0;
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    starts[line] = start;
+                    ids[line] = number(new Line(data, start, i + 1));
+                    line += 1;
+                    start = i + 1;
+                }
+            }
+            starts[count] = data.length;
+            return new Lines(data, starts, ids);
+        }
+
+        private int number(Line line) {
+            Integer id = _ids.get(line);
+            if (id == null) {
+                id = _ids.size();
+                _ids.put(line, id);
+            }
+            return id;
+        }
+
+        /**
+         Key: a distinct line.
+         Value: its number.
+         */
+        private final Map<Line, Integer> _ids = new HashMap<>();
+    }
+
+    /**
+     True if DATA looks binary: it has a NUL byte in its first 8000 bytes.
+     */
+    static boolean isBinary(byte[] data) {
+        for (int i = 0; i < Math.min(data.length, 8000); i++) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     Writes unified diffs of CHANGES to OUT, in order. Files are read and
+     diffed on a pool of threads a few files ahead of the one being
+     written, so output starts at once and memory stays bounded.
+     */
+    static void print(List<Change> changes, OutputStream out) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(Checkout.IO_THREADS, changes.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<byte[]>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < changes.size() || !pending.isEmpty()) {
+                while (next < changes.size() && pending.size() < 2 * threads) {
+                    Change change = changes.get(next);
+                    pending.add(pool.submit(() -> unified(change)));
+                    next += 1;
+                }
+                out.write(pending.poll().get());
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+    }
+
+    /**
+     Returns the unified diff of CHANGE.
+     */
+    static byte[] unified(Change change) throws IOException {
+        byte[] before = change.oldHash == null ? new byte[0] : Blob.readAll(change.oldHash);
+        byte[] after;
+        if (change.newFile != null) {
+            after = change.newFile.exists() ? Files.readAllBytes(change.newFile.toPath())
+                    : new byte[0];
+        } else {
+            after = change.newHash == null ? new byte[0] : Blob.readAll(change.newHash);
+        }
+        boolean deleted = change.newFile != null ? !change.newFile.exists()
+                : change.newHash == null;
+        String from = change.oldHash == null ? "/dev/null" : "a/" + change.name;
+        String to = deleted ? "/dev/null" : "b/" + change.name;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "diff --gitlet a/" + change.name + " b/" + change.name + "\n");
+        if (isBinary(before) || isBinary(after)) {
+            write(out, "Binary files " + from + " and " + to + " differ\n");
+            return out.toByteArray();
+        }
+        write(out, "--- " + from + "\n+++ " + to + "\n");
+        LineTable table = new LineTable();
+        Lines a = table.split(before);
+        Lines b = table.split(after);
+        List<Hunk> hunks = diff(a.ids, b.ids);
+        int first = 0;
+        while (first < hunks.size()) {
+            int last = first;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int aStart = Math.max(0, hunks.get(first).aStart - CONTEXT);
+            int aEnd = Math.min(a.size(), hunks.get(last).aEnd + CONTEXT);
+            int bStart = hunks.get(first).bStart - (hunks.get(first).aStart - aStart);
+            int bEnd = hunks.get(last).bEnd + (aEnd - hunks.get(last).aEnd);
+            write(out, "@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@\n");
+            int i = aStart;
+            for (int h = first; h <= last; h++) {
+                Hunk hunk = hunks.get(h);
+                writeLines(out, ' ', a, i, hunk.aStart);
+                writeLines(out, '-', a, hunk.aStart, hunk.aEnd);
+                writeLines(out, '+', b, hunk.bStart, hunk.bEnd);
+                i = hunk.aEnd;
+            }
+            writeLines(out, ' ', a, i, aEnd);
+            first = last + 1;
+        }
+        return out.toByteArray();
+    }
+
+    private static String range(int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /**
+     Writes lines [FROM, TO) of LINES to OUT, each after PREFIX.
+     */
+    private static void writeLines(ByteArrayOutputStream out, char prefix, Lines lines,
+                                   int from, int to) {
+        for (int i = from; i < to; i++) {
+            out.write(prefix);
+            out.write(lines.data, lines.starts[i], lines.starts[i + 1] - lines.starts[i]);
+            if (i == lines.size() - 1 && lines.missingFinalNewline()) {
+                write(out, "\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     Retrieve the hunks turning A into B, in order. Hunks are separated by
+     at least one common line, and each is as far down as it can go.
+     */
+    static List<Hunk> diff(int[] a, int[] b) {
+        boolean[] changedA = new boolean[a.length];
+        boolean[] changedB = new boolean[b.length];
+        int[] forward = new int[a.length + b.length + 3];
+        int[] backward = new int[a.length + b.length + 3];
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] {0, a.length, 0, b.length});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int aStart = range[0];
+            int aEnd = range[1];
+            int bStart = range[2];
+            int bEnd = range[3];
+            while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+                aStart += 1;
+                bStart += 1;
+            }
+            while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+                aEnd -= 1;
+                bEnd -= 1;
+            }
+            if (aStart == aEnd || bStart == bEnd) {
+                Arrays.fill(changedA, aStart, aEnd, true);
+                Arrays.fill(changedB, bStart, bEnd, true);
+                continue;
+            }
+            int[] snake = middleSnake(a, aStart, aEnd, b, bStart, bEnd, forward, backward);
+            ranges.push(new int[] {snake[2], aEnd, snake[3], bEnd});
+            ranges.push(new int[] {aStart, snake[0], bStart, snake[1]});
+        }
+        slideDown(a, changedA);
+        slideDown(b, changedB);
+        List<Hunk> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !changedA[i] && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.length && changedA[i]) {
+                i += 1;
+            }
+            while (j < b.length && changedB[j]) {
+                j += 1;
+            }
+            result.add(new Hunk(aStart, i, bStart, j));
+        }
+        return result;
+    }
+
+    /**
+     Moves the changes in LINES as far down as they can go. Within a run
+     of equal lines, changed lines are moved to the end of the run; then
+     each run of changed lines slides down past the unchanged lines that
+     repeat its first lines, joining runs that come to touch. Both files
+     keep the same unchanged lines in the same order, so the diff stays
+     correct; and a change inside repeated lines, which an optimal diff
+     may place anywhere among them, lands at the same place in any diff
+     from these lines, so a merge sees two sides making it as one hunk
+     rather than two.
+     */
+    private static void slideDown(int[] lines, boolean[] changed) {
+        int start = 0;
+        while (start < lines.length) {
+            int end = start;
+            int count = 0;
+            while (end < lines.length && lines[end] == lines[start]) {
+                count += changed[end] ? 1 : 0;
+                end += 1;
+            }
+            Arrays.fill(changed, start, end - count, false);
+            Arrays.fill(changed, end - count, end, true);
+            start = end;
+        }
+        start = 0;
+        while (start < lines.length) {
+            if (!changed[start]) {
+                start += 1;
+                continue;
+            }
+            int end = start;
+            while (end < lines.length && changed[end]) {
+                end += 1;
+            }
+            while (end < lines.length && lines[start] == lines[end]) {
+                changed[start] = false;
+                changed[end] = true;
+                start += 1;
+                end += 1;
+                while (end < lines.length && changed[end]) {
+                    end += 1;
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     Returns the middle snake of an optimal path from (ASTART, BSTART) to
+     (AEND, BEND) as {x start, y start, x end, y end}. Both ranges are
+     non-empty and differ in their first and last lines. FORWARD and
+     BACKWARD are scratch space for the furthest point on each diagonal,
+     shared by every call. Once the search costs more than about the
+     square root of the input, it settles for the furthest point reached,
+     trading a minimal diff for bounded time.
+     */
+    private static int[] middleSnake(int[] a, int aStart, int aEnd, int[] b, int bStart,
+                                     int bEnd, int[] forward, int[] backward) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        int maxCost = Math.max(MIN_COST, (int) Math.sqrt(n + m));
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1
+                        && x + backward[offset + c] >= n) {
+                    return new int[] {aStart + startX, bStart + startY, aStart + x, bStart + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int c = delta - k;
+                if (!odd && c >= -d && c <= d && x + forward[offset + c] >= n) {
+                    return new int[] {aEnd - x, bEnd - y, aEnd - startX, bEnd - startY};
+                }
+            }
+            if (d >= maxCost) {
+                int bestX = -1;
+                int bestY = -1;
+                for (int k = -d; k <= d; k += 2) {
+                    int x = forward[offset + k];
+                    int y = x - k;
+                    if (x <= n && y >= 0 && y <= m && x + y > bestX + bestY) {
+                        bestX = x;
+                        bestY = y;
+                    }
+                }
+                return new int[] {aStart + bestX, bStart + bestY, aStart + bestX, bStart + bestY};
+            }
+        }
+        throw new IllegalStateException("No middle snake");
+    }
+
+    /**
+     One line, by reference into its file's bytes.
+     */
+    private static class Line {
+        Line(byte[] data, int start, int end) {
+            _data = data;
+            _start = start;
+            _end = end;
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + data[i];
+            }
+            _hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Line)) {
+                return false;
+            }
+            Line line = (Line) other;
+            return _hash == line._hash
+                    && Arrays.equals(_data, _start, _end, line._data, line._start, line._end);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        private final byte[] _data;
+        private final int _start;
+        private final int _end;
+        private final int _hash;
+    }
+}
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Crash-safe file writes. Every file is written to a unique temporary file
+ * in its target's folder and only renamed over the target at the next
+ * sync(), so readers and crashes only ever see the old or the complete new
+ * contents, and a file at an object's name always holds the whole object.
+ * Forcing is batched: sync() forces every file written or appended to
+ * since the last sync at once, in parallel, then renames the new ones into
+ * place in the order they were written, then forces each folder renamed
+ * into once, again in parallel. Refs are only moved after everything
+ * written before them is synced, and are synced as they move.
+ *
+ * A file written here is not visible at its name until the next sync, so
+ * code that reads back what it wrote syncs first.
+ * @author victorcruz
+ */
+public class Durable {
+    /**
+     Replaces TARGET with CONTENTS at the next sync.
+     */
+    public static void write(File target, byte[] contents) {
+        try {
+            Path temp = tempFor(target);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(contents);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Trace.Counter.BYTES_WRITTEN.add(contents.length);
+            install(temp, target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Writes object TARGET with CONTENTS unless it already exists. Objects
+     are named by their contents, so an existing one is already right.
+     */
+    public static void writeIfAbsent(File target, byte[] contents) {
+        if (!target.exists()) {
+            write(target, contents);
+        }
+    }
+
+    /**
+     Points ref REF at VALUE, after syncing everything written so far, so a
+     ref never survives a crash that loses what it names.
+     */
+    public static void writeRef(File ref, String value) {
+        sync();
+        write(ref, value.getBytes(StandardCharsets.UTF_8));
+        sync();
+    }
+
+    /**
+     Returns a new temporary file in TARGET's folder.
+     */
+    public static Path tempFor(File target) throws IOException {
+        return Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(),
+                target.getName() + ".", ".tmp");
+    }
+
+    /**
+     Renames TEMP, once forced to disk, over TARGET at the next sync.
+     */
+    public static void install(Path temp, File target) {
+        _renames.add(new Path[] {temp, target.toPath()});
+    }
+
+    /**
+     Records that FILE was appended to in place, so the next sync forces it
+     before any ref moves.
+     */
+    public static void appended(File file) {
+        _appended.add(file.getAbsoluteFile().toPath());
+        _folders.add(file.getAbsoluteFile().getParentFile().toPath());
+    }
+
+    /**
+     Forces every file written or appended to since the last sync to disk,
+     renames the written ones into place, and forces the folders they were
+     renamed into.
+     */
+    public static synchronized void sync() {
+        if (_renames.isEmpty() && _appended.isEmpty()) {
+            return;
+        }
+        Trace.Phase phase = Trace.phase("sync");
+        try {
+            List<Path[]> renames = new ArrayList<>();
+            for (Path[] rename = _renames.poll(); rename != null; rename = _renames.poll()) {
+                renames.add(rename);
+            }
+            List<Path> files = new ArrayList<>(_appended);
+            _appended.removeAll(files);
+            for (Path[] rename : renames) {
+                files.add(rename[0]);
+            }
+            files.parallelStream().forEach(Durable::force);
+            for (Path[] rename : renames) {
+                rename(rename[0], rename[1]);
+            }
+            List<Path> folders = new ArrayList<>(_folders);
+            _folders.removeAll(folders);
+            folders.parallelStream().forEach(Durable::force);
+            Trace.Counter.FSYNCS.add(files.size() + folders.size());
+        } finally {
+            phase.end();
+        }
+    }
+
+    /**
+     Renames TEMP over TARGET and records TARGET's folder to be forced.
+     */
+    private static void rename(Path temp, Path target) {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException excp) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Left for the next gc to find.
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Trace.Counter.FILES_WRITTEN.add(1);
+        _folders.add(target.toAbsolutePath().getParent());
+    }
+
+    private static void force(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (NoSuchFileException excp) {
+            // Deleted or replaced since it was written; nothing to flush.
+        } catch (IOException excp) {
+            if (!Files.isDirectory(path)) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            // Some platforms cannot flush folders; renames there are as
+            // durable as they get.
+        }
+    }
+
+    /** Temporary files and the targets they replace at the next sync, in
+     *  the order they were written. */
+    private static final Queue<Path[]> _renames = new ConcurrentLinkedQueue<>();
+
+    /** Files appended to in place since the last sync. */
+    private static final Set<Path> _appended = ConcurrentHashMap.newKeySet();
+
+    /** Folders renamed or appended into since the last sync. */
+    private static final Set<Path> _folders = ConcurrentHashMap.newKeySet();
+}
@@ -0,0 +1,118 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Three-way line merge. Diffs both sides against their common version and
+ * walks the two hunk lists together: hunks only one side made are taken
+ * from that side, and only hunks both sides made over the same (or
+ * touching) lines of the common version are written as conflicts. Output
+ * is copied line by line from the inputs' bytes.
+ * @author victorcruz
+ */
+public class LineMerge {
+    private static final byte[] HEAD_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     Writes the merge of HEAD and GIVEN, both changed from BASE, to OUT.
+     Returns true if some hunk conflicted.
+     */
+    public static boolean merge(byte[] base, byte[] head, byte[] given, OutputStream out)
+            throws IOException {
+        Diff.LineTable table = new Diff.LineTable();
+        Diff.Lines baseLines = table.split(base);
+        Diff.Lines headLines = table.split(head);
+        Diff.Lines givenLines = table.split(given);
+        List<Diff.Hunk> headHunks = Diff.diff(baseLines.ids, headLines.ids);
+        List<Diff.Hunk> givenHunks = Diff.diff(baseLines.ids, givenLines.ids);
+        boolean conflicted = false;
+        int h = 0;
+        int g = 0;
+        int written = 0;
+        int headShift = 0;
+        int givenShift = 0;
+        while (h < headHunks.size() || g < givenHunks.size()) {
+            boolean headFirst = g == givenHunks.size() || (h < headHunks.size()
+                    && headHunks.get(h).aStart <= givenHunks.get(g).aStart);
+            int headFrom = h;
+            int givenFrom = g;
+            Diff.Hunk start = headFirst ? headHunks.get(h++) : givenHunks.get(g++);
+            int lo = start.aStart;
+            int hi = start.aEnd;
+            while (true) {
+                if (h < headHunks.size() && headHunks.get(h).aStart <= hi) {
+                    hi = Math.max(hi, headHunks.get(h).aEnd);
+                    h += 1;
+                } else if (g < givenHunks.size() && givenHunks.get(g).aStart <= hi) {
+                    hi = Math.max(hi, givenHunks.get(g).aEnd);
+                    g += 1;
+                } else {
+                    break;
+                }
+            }
+            copy(out, baseLines, written, lo);
+            int headStart = lo + headShift;
+            int headEnd = hi + headShift;
+            if (h > headFrom) {
+                Diff.Hunk first = headHunks.get(headFrom);
+                Diff.Hunk last = headHunks.get(h - 1);
+                headStart = first.bStart - (first.aStart - lo);
+                headEnd = last.bEnd + (hi - last.aEnd);
+            }
+            int givenStart = lo + givenShift;
+            int givenEnd = hi + givenShift;
+            if (g > givenFrom) {
+                Diff.Hunk first = givenHunks.get(givenFrom);
+                Diff.Hunk last = givenHunks.get(g - 1);
+                givenStart = first.bStart - (first.aStart - lo);
+                givenEnd = last.bEnd + (hi - last.aEnd);
+            }
+            headShift = headEnd - hi;
+            givenShift = givenEnd - hi;
+            if (g == givenFrom) {
+                copy(out, headLines, headStart, headEnd);
+            } else if (h == headFrom || Arrays.equals(headLines.ids, headStart, headEnd,
+                    givenLines.ids, givenStart, givenEnd)) {
+                copy(out, givenLines, givenStart, givenEnd);
+            } else {
+                conflicted = true;
+                out.write(HEAD_MARKER);
+                copyTerminated(out, headLines, headStart, headEnd);
+                out.write(SEPARATOR);
+                copyTerminated(out, givenLines, givenStart, givenEnd);
+                out.write(END_MARKER);
+            }
+            written = hi;
+        }
+        copy(out, baseLines, written, baseLines.size());
+        return conflicted;
+    }
+
+    /**
+     Writes lines [FROM, TO) of LINES to OUT.
+     */
+    private static void copy(OutputStream out, Diff.Lines lines, int from, int to)
+            throws IOException {
+        if (from < to) {
+            out.write(lines.data, lines.starts[from], lines.starts[to] - lines.starts[from]);
+        }
+    }
+
+    /**
+     Writes lines [FROM, TO) of LINES to OUT, ending them with a newline
+     even if the file's last line has none, so a marker can follow.
+     */
+    private static void copyTerminated(OutputStream out, Diff.Lines lines, int from, int to)
+            throws IOException {
+        copy(out, lines, from, to);
+        if (from < to && to == lines.size() && lines.missingFinalNewline()) {
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Repository lock shared by every gitlet process, held on .gitlet/lock for
+ * the whole of a command. Commands that only read the repository take it
+ * shared and run together; all others take it exclusive and run one at a
+ * time. Locks nest within a process, so the daemon can hold it around the
+ * commands it runs. The operating system drops the lock of a process that
+ * dies, so a crash never leaves the repository locked.
+ *
+ * A command that will start gitlet in other repositories takes their locks
+ * for them at its start, together with its own, and tells each started
+ * gitlet so. All the locks of a command are taken in the order of their
+ * paths and held to its end, so syncs in opposite directions never each
+ * hold one lock while waiting on the other, a repository syncing with
+ * itself never waits on its own lock, and no lock is let go partway
+ * through a command.
+ * @author victorcruz
+ */
+public class Lock {
+    /** File locked. */
+    static final File LOCK_FILE = new File(Main.GITLET_DIR, "lock");
+
+    /** System property naming the .gitlet folder whose lock this process's
+     *  parent gitlet holds for it. */
+    static final String HELD_PROPERTY = "gitlet.lockHeld";
+
+    /** Commands that take the lock shared. */
+    private static final Set<String> READERS = Set.of(
+        "log", "global-log", "find", "status", "diff", "upload-pack", "upload-objects");
+
+    /**
+     True if COMMAND only reads the repository.
+     */
+    static boolean isReader(String command) {
+        return READERS.contains(command);
+    }
+
+    /**
+     Takes the lock for COMMAND, and the locks of the repositories in PEERS,
+     .gitlet folders mapped to whether gitlet there only reads, all in the
+     order of their paths. Within a lock this process already holds, only
+     counts.
+     */
+    static synchronized void acquire(String command, Map<File, Boolean> peers) {
+        if (_depth > 0) {
+            _depth++;
+            return;
+        }
+        try {
+            File mine = LOCK_FILE.getCanonicalFile();
+            TreeMap<File, Boolean> locks = new TreeMap<>();
+            for (Map.Entry<File, Boolean> peer : peers.entrySet()) {
+                File lock = new File(peer.getKey(), LOCK_FILE.getName()).getCanonicalFile();
+                if (!lock.equals(mine)) {
+                    locks.merge(lock, peer.getValue(), Boolean::logicalAnd);
+                }
+            }
+            locks.put(mine, isReader(command));
+            for (Map.Entry<File, Boolean> lock : locks.entrySet()) {
+                if (lock.getKey().equals(mine)) {
+                    acquire(command);
+                } else {
+                    _peers.put(lock.getKey().getParentFile(),
+                            lockPeer(lock.getKey(), lock.getValue()));
+                }
+            }
+        } catch (IOException excp) {
+            releaseAll();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Takes this repository's lock for COMMAND: shared if it only reads the
+     repository, exclusive otherwise. A reader that finds it would first
+     have to write something, such as the commit graph or message index it
+     reads from, takes the lock exclusive instead, since the lock is never
+     upgraded in place.
+     */
+    private static void acquire(String command) {
+        boolean shared = isReader(command) && !heldByParent();
+        acquire(shared);
+        if (shared && needsUpkeep(Main.GITLET_DIR, command)) {
+            unlock();
+            _depth--;
+            acquire(false);
+        }
+    }
+
+    /**
+     Takes the lock file LOCK of another repository, shared if SHARED and
+     gitlet there would have nothing to write first, and returns the
+     channel holding it.
+     */
+    private static FileChannel lockPeer(File lock, boolean shared) throws IOException {
+        FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock held = channel.lock(0, Long.MAX_VALUE, shared);
+            if (shared && needsUpkeep(lock.getParentFile(), "upload-pack")) {
+                held.release();
+                channel.lock();
+            }
+        } catch (IOException | RuntimeException excp) {
+            channel.close();
+            throw excp;
+        }
+        return channel;
+    }
+
+    /**
+     True if reader COMMAND in the repository in folder GITLET would write
+     to it: to migrate it, to build its commit graph or message index, or
+     to fetch blobs a partial clone lacks.
+     */
+    private static boolean needsUpkeep(File gitlet, String command) {
+        return !new File(gitlet, Codec.VERSION_FILE.getName()).exists()
+                || !new File(gitlet, CommitGraph.GRAPH_FILE.getName()).exists()
+                || (command.equals("find")
+                    && !new File(gitlet, MessageIndex.INDEX_DIR.getName()).exists())
+                || ((command.equals("diff") || command.startsWith("upload-"))
+                    && new File(gitlet, Remote.PROMISOR_FILE.getName()).exists());
+    }
+
+    /**
+     True if this process holds the lock shared, and so must not write.
+     */
+    static synchronized boolean isShared() {
+        return _lock != null && _lock.isShared();
+    }
+
+    /**
+     Takes the lock, shared if SHARED, waiting for other processes as
+     needed. Within a lock this process already holds, only counts; the
+     lock is not upgraded, so an outer holder must be exclusive if any
+     inner one is.
+     */
+    private static void acquire(boolean shared) {
+        if (_depth++ > 0 || heldByParent()) {
+            return;
+        }
+        try {
+            _channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            _lock = _channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException excp) {
+            _depth = 0;
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     True if this process holds the lock of the repository in folder
+     GITLET, its own or one taken for the command it is running.
+     */
+    static synchronized boolean holds(File gitlet) {
+        try {
+            File dir = gitlet.getCanonicalFile();
+            return _peers.containsKey(dir)
+                    || (_depth > 0 && dir.equals(Main.GITLET_DIR.getCanonicalFile()));
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     True if the gitlet that started this process holds this repository's
+     lock for it.
+     */
+    private static boolean heldByParent() {
+        String held = System.getProperty(HELD_PROPERTY);
+        try {
+            return held != null
+                    && new File(held).equals(Main.GITLET_DIR.getCanonicalFile());
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     Undoes one acquire(), dropping the lock with the last.
+     */
+    static synchronized void release() {
+        if (_depth > 0 && --_depth == 0) {
+            unlock();
+            unlockPeers();
+        }
+    }
+
+    /**
+     Drops the lock however many times it was taken, as after a command
+     that ended early.
+     */
+    static synchronized void releaseAll() {
+        if (_depth > 0) {
+            _depth = 0;
+            unlock();
+        }
+        unlockPeers();
+    }
+
+    private static void unlock() {
+        if (_lock == null) {
+            return;
+        }
+        try {
+            _lock.release();
+            _channel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            _lock = null;
+            _channel = null;
+        }
+    }
+
+    private static void unlockPeers() {
+        for (FileChannel channel : _peers.values()) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                // Closing drops the lock even when it fails.
+            }
+        }
+        _peers.clear();
+    }
+
+    /** Times acquire() was called without a matching release(). */
+    private static int _depth;
+
+    private static FileChannel _channel;
+    private static FileLock _lock;
+
+    /** Locks of other repositories held for this command, by .gitlet
+     *  folder. */
+    private static final Map<File, FileChannel> _peers = new HashMap<>();
+}
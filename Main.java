@@ -1,8 +1,21 @@
 package gitlet;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.time.*;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
@@ -15,19 +28,41 @@ public class Main {
     /** Main metadata folder. */
     static final File GITLET_DIR = new File(CWD, ".gitlet") ;
 
+    /** Staging folders of older versions, imported by Stage. */
     static final File StagingArea = new File(GITLET_DIR, "StagingArea");
 
     static final File filesForRemove = new File(GITLET_DIR, "RemoveFiles");
 
     static final File BRANCHES_DIR = new File(GITLET_DIR,"branches");
 
+    /** Estimated bytes of a cached commit besides its message. */
+    static final long COMMIT_WEIGHT = 256;
+
+    /** Bytes of output buffered between writes. */
+    static final int OUTPUT_BUFFER = 1 << 16;
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) {
         // FILL THIS IN
         if (args.length == 0) {
             System.out.println("Please enter a command.");
-            System.exit(0);
+            exit();
+        }
+        if (!Daemon.isServing() && !args[0].equals("daemon") && !args[0].startsWith("upload-")
+                && !args[0].equals("receive-pack") && Daemon.SOCKET.exists()) {
+            Integer status = Daemon.forward(args);
+            if (status != null) {
+                System.exit(status);
+            }
+        }
+        args = Trace.begin(args);
+        if (args.length == 0) {
+            System.out.println("Please enter a command.");
+            exit();
+        }
+        if (GITLET_DIR.exists() && !args[0].equals("daemon")) {
+            Lock.acquire(args[0], Remote.peers(args));
         }
         switch (args[0]) {
             case "init":
@@ -35,7 +70,7 @@ public class Main {
                 init();
                 break;
             case "add":
-                validateNumArgs("add", args, 2);
+                validateMinNumArgs("add", args, 2);
                 checkInit();
                 add(args);
                 break;
@@ -64,9 +99,8 @@ public class Main {
                 log(args);
                 break;
             case "global-log":
-                validateNumArgs("global-log", args,1);
                 checkInit();
-                globalLog();
+                globalLog(args);
                 break;
             case "branch":
                 validateNumArgs("branch", args, 2);
@@ -74,7 +108,7 @@ public class Main {
                 branch(args);
                 break;
             case "find":
-                validateNumArgs("find", args, 2);
+                validateMinNumArgs("find", args, 2);
                 checkInit();
                 find(args);
                 break;
@@ -93,10 +127,74 @@ public class Main {
                 checkInit();
                 merge(args);
                 break;
+            case "gc":
+                validateNumArgs("gc", args, 1);
+                checkInit();
+                gc();
+                break;
+            case "diff":
+                checkInit();
+                diff(args);
+                break;
+            case "daemon":
+                checkInit();
+                Daemon.command(args);
+                break;
+            case "add-remote":
+                validateNumArgs("add-remote", args, 3);
+                checkInit();
+                Remote.addRemote(args);
+                break;
+            case "rm-remote":
+                validateNumArgs("rm-remote", args, 2);
+                checkInit();
+                Remote.rmRemote(args);
+                break;
+            case "fetch":
+                validateNumArgs("fetch", args, 3);
+                checkInit();
+                Remote.fetch(args);
+                break;
+            case "push":
+                validateNumArgs("push", args, 3);
+                checkInit();
+                Remote.push(args);
+                break;
+            case "pull":
+                validateNumArgs("pull", args, 3);
+                checkInit();
+                Remote.pull(args);
+                break;
+            case "clone":
+                validateMinNumArgs("clone", args, 2);
+                Remote.clone(args);
+                break;
+            case "upload-objects":
+                validateNumArgs("upload-objects", args, 1);
+                checkInit();
+                Remote.uploadObjects();
+                break;
+            case "upload-pack":
+                validateMinNumArgs("upload-pack", args, 2);
+                checkInit();
+                Remote.uploadPack(args);
+                break;
+            case "receive-pack":
+                validateNumArgs("receive-pack", args, 2);
+                checkInit();
+                Remote.receivePack(args);
+                break;
             default:
                 System.out.println("No command with that name exists.");
-                System.exit(0);
+                exit();
+        }
+        if (!Lock.isShared()) {
+            Stage.saveIfDirty();
+            StatCache.saveIfDirty();
         }
+        Durable.sync();
+        Trace.end();
+        Lock.release();
     }
     /**
      * Does required filesystem operations to allow for persistence.
@@ -110,178 +208,204 @@ public class Main {
     public static void init() {
         // FIXME
         if (!GITLET_DIR.exists()) {
-            GITLET_DIR.mkdir();
-            Blob.BLOB_FOLDER.mkdir();
-            Commit.COMMITS_FOLDER.mkdir();
+            initFolders();
             Commit initialCommit = new Commit("initial commit", null, new LinkedHashMap<>(), LocalDateTime.of(1969, 12, 31, 16, 0, 0).atZone(ZoneId.of("America/Los_Angeles")));
 
-            File commitFile = new File(Commit.COMMITS_FOLDER, findCommitHash(initialCommit));
-            Utils.writeObject(commitFile, initialCommit);
-            BRANCHES_DIR.mkdir();
+            File commitFile = new File(Commit.COMMITS_FOLDER, initialCommit.getId());
+            Codec.writeCommit(commitFile, initialCommit);
+            CommitGraph.get().add(initialCommit.getId(), initialCommit);
             File initialHead = new File(GITLET_DIR, "HEAD");
-            Utils.writeContents(initialHead, "master");
+            Durable.writeRef(initialHead, "master");
             moveHead(initialCommit);
         } else {
             System.out.println("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            exit();
         }
     }
 
-    /**  Adds a copy of the file as it currently exists to the staging area
-     *
+    /**
+     * Creates the folders of a repository with no commits yet.
+     */
+    static void initFolders() {
+        GITLET_DIR.mkdir();
+        Blob.BLOB_FOLDER.mkdir();
+        Delta.DELTA_FOLDER.mkdir();
+        Commit.COMMITS_FOLDER.mkdir();
+        BRANCHES_DIR.mkdir();
+        Durable.write(Codec.VERSION_FILE,
+                Integer.toString(Codec.VERSION).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**  Adds a copy of each named file as it currently exists to the staging area.
+     *  Operands may be filenames, glob patterns, or the working directory itself.
+     *  Files are hashed and their blobs written in parallel, and the staging area
+     *  is updated once at the end.
      */
     public static void add(String[] args) {
-            File add = new File(CWD, args[1]);
-            Blob addBlob = new Blob(add);
-            LinkedHashMap<String, String> headCommitBlobs = getHeadCommit().getBlobs();
-            if (add.exists()) {
-                stageOverwrite(filesForRemove, args[1]);
-                if (headCommitBlobs.containsKey(args[1])) {
-                    if (headCommitBlobs.get(args[1]).equals(findBlobHash(addBlob))) {
-                        stageOverwrite(StagingArea, args[1]);
-                    } else {
-                        File addFile = new File(Blob.BLOB_FOLDER, findBlobHash(addBlob));
-                        Utils.writeObject(addFile, addBlob);
-                        stageFile(findBlobHash(addBlob), args[1]);
+        LinkedHashSet<String> fileNames = expandOperands(Arrays.copyOfRange(args, 1, args.length));
+        Commit headCommit = getHeadCommit();
+        ConcurrentHashMap<String, String> hashes = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, String> tracked = new ConcurrentHashMap<>();
+        fileNames.parallelStream().forEach(fileName -> {
+            File add = new File(CWD, fileName);
+            String addHash = StatCache.get().hash(add);
+            String trackedHash = headCommit.getBlob(fileName);
+            if (!addHash.equals(trackedHash)) {
+                Blob.write(add, addHash, trackedHash);
+            }
+            hashes.put(fileName, addHash);
+            if (trackedHash != null) {
+                tracked.put(fileName, trackedHash);
+            }
+        });
+        for (String fileName : fileNames) {
+            String addHash = hashes.get(fileName);
+            Stage.get().unremove(fileName);
+            if (addHash.equals(tracked.get(fileName))) {
+                Stage.get().unstage(fileName);
+            } else {
+                stageFile(addHash, fileName);
+            }
+        }
+    }
+
+    /**
+     * Resolves add operands to working filenames. Gitlet tracks a flat working
+     * directory, so a directory operand must be the working directory itself.
+     */
+    public static LinkedHashSet<String> expandOperands(String[] operands) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        List<String> presentFiles = Trace.list(CWD);
+        for (String operand : operands) {
+            File file = new File(CWD, operand);
+            if (operand.matches(".*[*?\\[{].*")) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + operand);
+                for (String s : presentFiles) {
+                    if (matcher.matches(Paths.get(s))) {
+                        result.add(s);
                     }
-                } else {
-                    File addFile = new File(Blob.BLOB_FOLDER, findBlobHash(addBlob));
-                    Utils.writeObject(addFile, addBlob);
-                    stageFile(findBlobHash(addBlob), args[1]);
                 }
+            } else if (file.isDirectory() && isWorkingDirectory(file)) {
+                result.addAll(presentFiles);
+            } else if (file.isFile()) {
+                result.add(operand);
             } else {
                 System.out.println("File does not exist.");
-                System.exit(0);
+                exit();
             }
         }
+        return result;
+    }
+
+    private static boolean isWorkingDirectory(File dir) {
+        try {
+            return dir.getCanonicalFile().equals(CWD.getCanonicalFile());
+        } catch (IOException excp) {
+            return false;
+        }
+    }
 
     /**
      * Saves a snapshot of tracked files in the current commit
      * and staging area so they can be restored at a later time, creating a new commit.
      */
     public static void commit(String[] args) {
-        Commit headClone = getHeadCommit().clone();
-        headClone.changeMessage(args[1]);
-        headClone.changeTime(ZonedDateTime.now());
-        if (args[1] == "" || args[1] == null) {
+        if (args[1] == null || args[1].isEmpty()) {
             System.out.println("Please enter a commit message.");
-            System.exit(0);
+            exit();
         }
-
-        List<String> stageFiles = Utils.plainFilenamesIn(StagingArea);
-        if(stageFiles == null) {
+        if (Stage.get().isEmpty()) {
             System.out.println("Nothing to commit");
-            System.exit(0);
-        }
-        for (String file_name: stageFiles) {
-            File thisFile = new File(StagingArea, file_name);
-            headClone.add_replaceBlob(file_name, Utils.readContentsAsString(thisFile));
-            thisFile.delete();
-        }
-        List<String> removeFiles = Utils.plainFilenamesIn(filesForRemove);
-        if (removeFiles!=null) {
-            for (String s: removeFiles) {
-                headClone.removeBlob(s);
-                File thisFile = new File(filesForRemove, s);
-                thisFile.delete();
-            }
+            exit();
         }
-        headClone.changeParent(findCommitHash(getHeadCommit()));
-        File commitFile = new File(Commit.COMMITS_FOLDER, findCommitHash(headClone));
-        Utils.writeObject(commitFile, headClone);
+        makeCommit(args[1]);
+    }
+
+    /**
+     * Commits the staging area on top of the head commit with MESSAGE and
+     * clears it.
+     */
+    public static void makeCommit(String message) {
+        makeCommit(message, null);
+    }
+
+    /**
+     * Commits the staging area with MESSAGE, recording SECONDPARENT as the
+     * merged-in commit when it is not null.
+     */
+    public static void makeCommit(String message, String secondParent) {
+        Commit headClone = getHeadCommit().clone();
+        headClone.changeMessage(message);
+        headClone.changeTime(ZonedDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+        for (Map.Entry<String, String> entry : Stage.get().getAdded().entrySet()) {
+            headClone.add_replaceBlob(entry.getKey(), entry.getValue());
+        }
+        for (String s: Stage.get().getRemoved().keySet()) {
+            headClone.removeBlob(s);
+        }
+        Stage.get().clear();
+        headClone.changeParent(getHead());
+        headClone.changeSecondParent(secondParent);
+        File commitFile = new File(Commit.COMMITS_FOLDER, headClone.getId());
+        Codec.writeCommit(commitFile, headClone);
+        CommitGraph.get().add(headClone.getId(), headClone);
         moveHead(headClone);
     }
 
     public static void checkout(String [] args) {
         if(args[1].equals("--") && args.length == 3) {
-            if (getHeadCommit().getBlobs().containsKey(args[2])) {
+            String savedFileHash = getHeadCommit().getBlob(args[2]);
+            if (savedFileHash != null) {
                 File presentFile = new File(CWD, args[2]);
                 if (presentFile.exists()) {
                     presentFile.delete();
                 }
-                String savedFileHash = getHeadCommit().getBlobs().get(args[2]);
-                File blobFile = new File(Blob.BLOB_FOLDER,savedFileHash);
-                if (blobFile.exists()) {
-                    Utils.writeContents(presentFile, Utils.readObject(blobFile, Blob.class).getContents());
+                if (Blob.exists(savedFileHash)) {
+                    restoreFile(savedFileHash, presentFile);
                 }
             } else {
                 System.out.println("File does not exist in that commit");
-                System.exit(0);
+                exit();
             }
         }
         else if (args.length == 4 && args[2].equals("--")) {
             Commit thisCommit = getCommit(args[1]);
             if (thisCommit == null) {
                 System.out.println("No commit with that id exists.");
-                System.exit(0);
+                exit();
             }
-            if (thisCommit.getBlobs().get(args[3]) == null) {
+            String savedFileHash = thisCommit.getBlob(args[3]);
+            if (savedFileHash == null) {
                 System.out.println("File does not exist in that commit.");
-                System.exit(0);
+                exit();
             }
-            String savedFileHash = thisCommit.getBlobs().get(args[3]);
-            File blobFile = new File(Blob.BLOB_FOLDER,savedFileHash);
             File presentFile = new File(CWD, args[3]);
             if (presentFile.exists()) {
                 presentFile.delete();
             }
-            Utils.writeContents(presentFile, Utils.readObject(blobFile, Blob.class).getContents());
+            restoreFile(savedFileHash, presentFile);
         }
         else if (args.length == 2) {
             File headFile = new File(GITLET_DIR, "HEAD");
             File newBranch = new File(BRANCHES_DIR, args[1]);
-            List <String> stageSize = Utils.plainFilenamesIn(StagingArea);
-            int untrackedFilesSize = getUntrackedFiles().size();
-            if (stageSize == null) {
-                if (untrackedFilesSize > 0) {
-                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                    System.exit(0);
-                }
-            }
-            else if (untrackedFilesSize > 0  || stageSize.size() > 0) {
+            if (getUntrackedFiles().size() > 0 || !Stage.get().getAdded().isEmpty()) {
                 System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+                exit();
             }
             if (!newBranch.exists()) {
                 System.out.println("No such branch exists.");
-                System.exit(0);
+                exit();
             }
             if (Utils.readContentsAsString(headFile).equals(args[1])) {
                 System.out.println("No need to checkout the current branch.");
-                System.exit(0);
+                exit();
             }
 
             Commit oldHEAD = getHeadCommit();
-            headFile.delete();
-            Utils.writeContents(headFile, args[1]);
-
-            oldHEAD.getBlobs().keySet().forEach(key -> {
-                if (!getHeadCommit().getBlobs().containsKey(key)) {
-                    File deleteFile = new File(CWD, key);
-                    if (deleteFile.exists()) {
-
-                        deleteFile.delete();
-                    }
-                }
-            });
-
-            getHeadCommit().getBlobs().entrySet().forEach( entry -> {
-                File thisFile = new File (CWD, entry.getKey());
-                if (thisFile.exists()) {
-                    thisFile.delete();
-                }
-                File thisBlob = new File(Blob.BLOB_FOLDER, entry.getValue());
-                Utils.writeContents(thisFile, Utils.readObject(thisBlob, Blob.class).getContents());
-
-            });
-
-            List<String> stageFiles = Utils.plainFilenamesIn(StagingArea);
-            if (stageFiles != null) {
-                for (String file_name: stageFiles) {
-                    File thisFile = new File(StagingArea, file_name);
-                    thisFile.delete();
-                }
-            }
+            Commit newHEAD = getCommit(Utils.readContentsAsString(newBranch));
+            Checkout.materialize(oldHEAD.getBlobs(), newHEAD.getBlobs());
+            Durable.writeRef(headFile, args[1]);
+            Stage.get().clear();
         }
 
     }
@@ -289,28 +413,65 @@ public class Main {
     public static void log(String[] args) {
 
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z");
-        Commit start = getHeadCommit();
+        Codec.Header start = getCommitHeader(getHead());
         while(true) {
             System.out.println("===");
-            System.out.println("commit " + findCommitHash(start));
-            System.out.println("Date: " + start.getTimeStamp().format(formatter));
-            System.out.println(start.getMessage() + "\n");
-            if (start.getParent() == null) {
+            System.out.println("commit " + start.id);
+            System.out.println("Date: " + start.timestamp.format(formatter));
+            System.out.println(start.message + "\n");
+            if (start.parents.length == 0 || CommitGraph.isGrafted(start.id)) {
                 break;
             }
-            start = getCommit(start.getParent());
+            start = getCommitHeader(start.parents[0]);
         }
     }
 
-    public static void globalLog() {
+    /**
+     * Prints every commit, sorted by UID, through one buffered writer.
+     * Takes optional "--skip N" and "-n N" (or "--limit N") operands to
+     * print a range.
+     */
+    public static void globalLog(String[] args) {
+        int skip = 0;
+        int limit = Integer.MAX_VALUE;
+        for (int i = 1; i < args.length; i += 2) {
+            int count = i + 1 < args.length ? parseCount(args[i + 1]) : -1;
+            if (count < 0) {
+                System.out.println("Incorrect operands.");
+                exit();
+            } else if (args[i].equals("--skip")) {
+                skip = count;
+            } else if (args[i].equals("-n") || args[i].equals("--limit")) {
+                limit = count;
+            } else {
+                System.out.println("Incorrect operands.");
+                exit();
+            }
+        }
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z");
-        List<String> commits = Utils.plainFilenamesIn(Commit.COMMITS_FOLDER);
-        for (String commit: commits) {
-            Commit thisCommit = getCommit(commit);
-            System.out.println("===");
-            System.out.println("commit " + commit);
-            System.out.println("Date: " + thisCommit.getTimeStamp().format(formatter));
-            System.out.println(thisCommit.getMessage() + "\n");
+        List<String> commits = CommitGraph.get().getUIDs();
+        int start = Math.min(skip, commits.size());
+        int end = (int) Math.min(commits.size(), (long) start + limit);
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), OUTPUT_BUFFER));
+        for (String commit: commits.subList(start, end)) {
+            Codec.Header thisCommit = getCommitHeader(commit);
+            out.println("===");
+            out.println("commit " + commit);
+            out.println("Date: " + thisCommit.timestamp.format(formatter));
+            out.println(thisCommit.message + "\n");
+        }
+        out.flush();
+    }
+
+    /**
+     Returns OPERAND as a count, or -1 if it is not a number.
+     */
+    static int parseCount(String operand) {
+        try {
+            return Integer.parseInt(operand);
+        } catch (NumberFormatException excp) {
+            return -1;
         }
     }
 
@@ -318,16 +479,16 @@ public class Main {
         File newBranch = new File(BRANCHES_DIR, args[1]);
         if (newBranch.exists()) {
             System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            exit();
         }
-        Utils.writeContents(newBranch, getHead());
+        Durable.writeRef(newBranch, getHead());
     }
 
     public static void status() {
         System.out.println("=== Branches ====");
         File headFile = new File(GITLET_DIR, "HEAD");
         String activeBranch = Utils.readContentsAsString(headFile);
-        List <String> branches = Utils.plainFilenamesIn(BRANCHES_DIR);
+        List <String> branches = Trace.list(BRANCHES_DIR);
         for (String branch: branches) {
             if (branch.equals(activeBranch)) {
                 System.out.println("*"+activeBranch);
@@ -337,19 +498,13 @@ public class Main {
         }
         System.out.println("");
         System.out.println("=== Staged Files ===");
-        List <String> stagedFiles = Utils.plainFilenamesIn(StagingArea);
-        if (stagedFiles != null) {
-            for (String file: stagedFiles) {
-                System.out.println(file);
-            }
+        for (String file: Stage.get().getAdded().keySet()) {
+            System.out.println(file);
         }
         System.out.println("");
         System.out.println("=== Removed Files ===");
-        List <String> removeFiles = Utils.plainFilenamesIn(filesForRemove);
-        if (removeFiles != null) {
-            for (String file: removeFiles) {
-                System.out.println(file);
-            }
+        for (String file: Stage.get().getRemoved().keySet()) {
+            System.out.println(file);
         }
         System.out.println("");
         System.out.println("=== Modifications Not Staged For Commit ===");
@@ -364,20 +519,15 @@ public class Main {
         }
     }
     public static void rm(String [] args) {
-        List<String> stageFiles = Utils.plainFilenamesIn(StagingArea);
         int modification = 1;
-        if (stageFiles != null) {
-            for (String file_name: stageFiles) {
-                if (file_name.equals(args[1])) {
-                    modification *= 0;
-                    File thisFile = new File(StagingArea, file_name);
-                    thisFile.delete();
-                }
-            }
+        if (Stage.get().isStaged(args[1])) {
+            modification *= 0;
+            Stage.get().unstage(args[1]);
         }
-        if (getHeadCommit().getBlobs().containsKey(args[1])) {
+        String trackedHash = getHeadCommit().getBlob(args[1]);
+        if (trackedHash != null) {
             modification *= 0;
-            stageRemove(getHeadCommit().getBlobs().get(args[1]), args [1]);
+            stageRemove(trackedHash, args [1]);
             File cwdFile = new File(CWD, args[1]);
             if (cwdFile.exists()) {
                 cwdFile.delete();
@@ -388,17 +538,25 @@ public class Main {
         }
     }
 
+    /**
+     * Prints the commits whose message is args[1], or with "--contains"
+     * the commits whose message contains args[2], using the message index.
+     */
     public static void find(String [] args) {
-        List <String> commits = Utils.plainFilenamesIn(Commit.COMMITS_FOLDER);
+        List <String> commits;
+        if (args.length == 3 && args[1].equals("--contains")) {
+            commits = MessageIndex.search(args[2]);
+        } else if (args.length == 2) {
+            commits = MessageIndex.find(args[1]);
+        } else {
+            System.out.println("Incorrect operands.");
+            exit();
+            return;
+        }
         int check = 1;
         for (String s: commits) {
-            Commit thisCommit = getCommit(s);
-            if (thisCommit.getMessage() != null) {
-                if (thisCommit.getMessage().equals(args[1])) {
-                    check *= 0;
-                    System.out.println(s);
-                }
-            }
+            check *= 0;
+            System.out.println(s);
         }
         if (check == 1) {
             System.out.println("Found no commit with that message.");
@@ -408,192 +566,194 @@ public class Main {
         File headFile = new File (GITLET_DIR, "HEAD");
         if (Utils.readContentsAsString(headFile).equals(args[1])) {
             System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            exit();
         }
         File thisBranch = new File(BRANCHES_DIR, args[1]);
         if (!thisBranch.exists()) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            exit();
         } else {
             thisBranch.delete();
         }
     }
 
     public static void reset(String[] args) {
-        List <String> stageArea = Utils.plainFilenamesIn(StagingArea);
-        int untrackedFilesSize = getUntrackedFiles().size();
-        if (stageArea == null) {
-            if (untrackedFilesSize > 0) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
-        else if (untrackedFilesSize > 0  || stageArea.size() > 0) {
+        if (getUntrackedFiles().size() > 0 || !Stage.get().getAdded().isEmpty()) {
             System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+            exit();
         }
-        LinkedHashMap<String, String> trackedFiles = getHeadCommit().getBlobs();
-        if (getCommit(args[1]) == null) {
+        Commit target = getCommit(args[1]);
+        if (target == null) {
             System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
-        LinkedHashMap<String, String> thisCommitFiles = getCommit(args[1]).getBlobs();
-        if (thisCommitFiles != null) {
-            thisCommitFiles.entrySet().forEach(entry -> {
-                checkout(new String[] {"checkout", args[1], "--", entry.getKey()});
-            });
-        }
-        trackedFiles.keySet().forEach(key -> {
-            if (!thisCommitFiles.containsKey(key)) {
-                File removeFile = new File(CWD, key);
-                if (removeFile.exists()) {
-                    removeFile.delete();
-                }
-            }
-        });
-        moveHead(getCommit(args[1]));
-        if (stageArea != null) {
-            for (String file_name: stageArea) {
-                File thisFile = new File(StagingArea, file_name);
-                thisFile.delete();
-            }
+            exit();
         }
+        Checkout.materialize(getHeadCommit().getBlobs(), target.getBlobs());
+        moveHead(target);
+        Stage.get().clear();
     }
 
     public static void merge(String [] args) {
         _conflictUsed = false;
-        List <String> stageArea = Utils.plainFilenamesIn(StagingArea);
-        List <String> removeArea = Utils.plainFilenamesIn(filesForRemove);
-        int untrackedFilesSize = getUntrackedFiles().size();
-        if (stageArea == null) {
-            if (untrackedFilesSize > 0) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
-        else if (untrackedFilesSize > 0  || stageArea.size() > 0) {
+        if (getUntrackedFiles().size() > 0 || !Stage.get().getAdded().isEmpty()) {
             System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+            exit();
         }
-        if (removeArea != null) {
-                if (removeArea.size() > 0) {
-                    System.out.println("You have uncommitted changes.");
-                    System.exit(0);
-                }
+        if (!Stage.get().getRemoved().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            exit();
         }
         File givenBranch = new File(BRANCHES_DIR, args[1]);
         if (!givenBranch.exists()) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            exit();
         }
         File headFile = new File(GITLET_DIR, "HEAD");
         if (args[1].equals(Utils.readContentsAsString(headFile))) {
             System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            exit();
         }
         String splitUID = getSplitPoint(args[1]);
+        if (splitUID == null) {
+            System.out.println("Given branch shares no history with the current branch.");
+            exit();
+        }
         if (Utils.readContentsAsString(givenBranch).equals(splitUID)) {
             System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            exit();
         }
         if (getHead().equals(splitUID)) {
             checkout(new String[] {"checkout", args[1]});
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            exit();
         }
         LinkedHashMap<String, String> splitFiles = getCommit(splitUID).getBlobs();
         LinkedHashMap<String, String> headFiles = getHeadCommit().getBlobs();
         LinkedHashMap<String, String> givenFiles = getCommit(Utils.readContentsAsString(givenBranch)).getBlobs();
 
 
-        LinkedHashMap<String, String>  allFiles = getCommit(splitUID).clone().getBlobs();
+        LinkedHashMap<String, String>  allFiles = new LinkedHashMap<>(splitFiles);
         allFiles.putAll(headFiles);
         allFiles.putAll(givenFiles);
 
-        allFiles.keySet().forEach(key -> {
-            File cwdFile = new File(CWD, key);
-
-            if (!splitFiles.containsKey(key)) {
-                if (!headFiles.containsKey(key)) {
-                    if (givenFiles.containsKey(key)) {
-                        Blob givenBlob = getBlob(givenFiles.get(key));
-                        Utils.writeContents(cwdFile, givenBlob.getContents());
-                        stageFile(givenFiles.get(key), key);
-                    }
-                } else {
-                    Blob headBlob = getBlob(headFiles.get(key));
-                    if (!givenFiles.containsKey(key)) {
-                        Utils.writeContents(cwdFile, headBlob.getContents());
-                    } else if (givenFiles.containsKey(key)) {
-                        Blob givenBlob = getBlob(givenFiles.get(key));
-                        if (!givenBlob.getContents().equals(headBlob.getContents())) {
-                            Utils.writeContents(cwdFile,conflictString(headBlob, givenBlob));
-                            Blob addBlob = new Blob(cwdFile);
-                            File addFile = new File(Blob.BLOB_FOLDER, findBlobHash(addBlob));
-                            Utils.writeObject(addFile, addBlob);
-                            stageFile(findBlobHash(addBlob), key);
+        Trace.Phase phase = Trace.phase("merge-files");
+        try {
+            allFiles.keySet().forEach(key -> {
+                File cwdFile = new File(CWD, key);
+                String split = splitFiles.get(key);
+                String head = headFiles.get(key);
+                String given = givenFiles.get(key);
+
+                if (split == null) {
+                    if (head == null) {
+                        if (given != null) {
+                            restoreFile(given, cwdFile);
+                            stageFile(given, key);
                         }
+                    } else if (given == null) {
+                        Checkout.write(head, cwdFile);
+                    } else if (isModified(head, given)) {
+                        mergeFile(cwdFile, key, null, head, given);
                     }
                 }
-            }
-            else {
-                if (headFiles.containsKey(key)) {
-                    Boolean headModified = isModified(splitFiles.get(key), headFiles.get(key));
-                    if (givenFiles.containsKey(key)) {
-                        Boolean givenModified = isModified(splitFiles.get(key), givenFiles.get(key));
-                        if(!headModified && givenModified) {
-                            Utils.writeContents(cwdFile, getBlob(givenFiles.get(key)).getContents());
-                            stageFile(givenFiles.get(key), key);
-                        } else if (headModified && !givenModified) {
-                            Utils.writeContents(cwdFile, getBlob(headFiles.get(key)).getContents());
-                        } else if (givenModified && headModified) {
-                            if (isModified(headFiles.get(key), givenFiles.get(key))) {
-                                Blob givenBlob = getBlob(givenFiles.get(key));
-                                Blob headBlob = getBlob(headFiles.get(key));
-                                Utils.writeContents(cwdFile,conflictString(headBlob, givenBlob));
-                                Blob addBlob = new Blob(cwdFile);
-                                File addFile = new File(Blob.BLOB_FOLDER, findBlobHash(addBlob));
-                                Utils.writeObject(addFile, addBlob);
-                                stageFile(findBlobHash(addBlob), key);
+                else {
+                    if (head != null) {
+                        boolean headModified = isModified(split, head);
+                        if (given != null) {
+                            boolean givenModified = isModified(split, given);
+                            if(!headModified && givenModified) {
+                                restoreFile(given, cwdFile);
+                                stageFile(given, key);
+                            } else if (headModified && !givenModified) {
+                                Checkout.write(head, cwdFile);
+                            } else if (givenModified && headModified && isModified(head, given)) {
+                                mergeFile(cwdFile, key, split, head, given);
                             }
-
-                        }
-                    } else {
-                        if (headModified) {
-                            Blob headBlob = getBlob(headFiles.get(key));
-                            Utils.writeContents(cwdFile,conflictString(headBlob, null));
-                            Blob addBlob = new Blob(cwdFile);
-                            File addFile = new File(Blob.BLOB_FOLDER, findBlobHash(addBlob));
-                            Utils.writeObject(addFile, addBlob);
-                            stageFile(findBlobHash(addBlob), key);
                         } else {
-                            stageRemove(headFiles.get(key), key);
+                            if (headModified) {
+                                writeConflict(cwdFile, key, head, null);
+                            } else {
+                                stageRemove(head, key);
+                            }
                         }
-
                     }
-
-                }
-                else if (givenFiles.containsKey(key)) {
-                    Boolean givenModified = isModified(splitFiles.get(key), givenFiles.get(key));
-                    if (givenModified) {
-                        Blob givenBlob = getBlob(givenFiles.get(key));
-                        Utils.writeContents(cwdFile,conflictString(null, givenBlob));
-                        Blob addBlob = new Blob(cwdFile);
-                        File addFile = new File(Blob.BLOB_FOLDER, findBlobHash(addBlob));
-                        Utils.writeObject(addFile, addBlob);
-                        stageFile(findBlobHash(addBlob), key);
+                    else if (given != null && isModified(split, given)) {
+                        writeConflict(cwdFile, key, null, given);
                     }
                 }
-            }
-        });
+            });
+        } finally {
+            phase.end();
+        }
         String message = "Merged " + args[1] + " into "+Utils.readContentsAsString(headFile)+".";
-        commit(new String[] {"commit", message});
-        Utils.writeContents(givenBranch, getHead());
+        makeCommit(message, Utils.readContentsAsString(givenBranch));
+        Durable.writeRef(givenBranch, getHead());
         if (_conflictUsed) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
+    /**
+     * Prints unified diffs: with no operands, from the head commit to the
+     * working directory; with one commit id, from that commit to the
+     * working directory; with two, between the two commits. Files whose
+     * hashes match are skipped without being read.
+     */
+    public static void diff(String[] args) {
+        List<Diff.Change> changes = new ArrayList<>();
+        if (args.length > 3) {
+            System.out.println("Incorrect operands.");
+            exit();
+        }
+        Commit from = args.length > 1 ? getCommit(args[1]) : getHeadCommit();
+        Commit to = args.length > 2 ? getCommit(args[2]) : null;
+        if (from == null || (args.length > 2 && to == null)) {
+            System.out.println("No commit with that id exists.");
+            exit();
+        }
+        if (to != null) {
+            for (Map.Entry<String, String[]> entry : from.diff(to).entrySet()) {
+                changes.add(new Diff.Change(entry.getKey(), entry.getValue()[0],
+                        entry.getValue()[1], null));
+            }
+        } else {
+            LinkedHashMap<String, String> tracked = from.getBlobs();
+            TreeSet<String> fileNames = new TreeSet<>(tracked.keySet());
+            fileNames.addAll(Stage.get().getAdded().keySet());
+            ConcurrentHashMap<String, String> working = new ConcurrentHashMap<>();
+            fileNames.parallelStream().forEach(fileName -> {
+                File file = new File(CWD, fileName);
+                if (file.isFile()) {
+                    working.put(fileName, StatCache.get().hash(file));
+                }
+            });
+            for (String fileName : fileNames) {
+                String trackedHash = tracked.get(fileName);
+                String workingHash = working.get(fileName);
+                if (!Objects.equals(trackedHash, workingHash)) {
+                    changes.add(new Diff.Change(fileName, trackedHash, workingHash,
+                            new File(CWD, fileName)));
+                }
+            }
+        }
+        Trace.Phase phase = Trace.phase("diff");
+        try {
+            Diff.print(changes, new BufferedOutputStream(System.out, OUTPUT_BUFFER));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            phase.end();
+        }
+    }
+
+    /**
+     * Consolidates loose objects and existing packs into one compressed
+     * packfile.
+     */
+    public static void gc() {
+        int packed = Pack.packLooseObjects();
+        System.out.println("Packed " + packed + " objects.");
+    }
+
     /**
      * Change the head hash
      * @param head
@@ -601,7 +761,7 @@ public class Main {
     public static void moveHead(Commit head) {
         File headFile = new File(GITLET_DIR,"HEAD");
         File branch =  new File(BRANCHES_DIR, Utils.readContentsAsString(headFile));
-        Utils.writeContents(branch, findCommitHash(head));
+        Durable.writeRef(branch, head.getId());
     }
 
     public static String getHead() {
@@ -612,101 +772,115 @@ public class Main {
     }
 
     public static Commit getHeadCommit() {
-        File headFile = new File(Commit.COMMITS_FOLDER, getHead());
-        return Utils.readObject(headFile, Commit.class);
+        return getCommit(getHead());
     }
     public static Commit getCommit(String UID) {
-        File UIDFile = new File(Commit.COMMITS_FOLDER, UID);
-        List<String> commits = Utils.plainFilenamesIn(Commit.COMMITS_FOLDER);
-        if (commits.contains(UID)) {
-            return Utils.readObject(UIDFile, Commit.class);
+        if (CommitGraph.get().contains(UID)) {
+            Commit commit = ObjectCache.get(ObjectCache.COMMIT, UID);
+            if (commit != null) {
+                return commit;
+            }
+            try (InputStream in = openCommit(UID)) {
+                commit = Codec.readCommit(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            commit.assignId(UID);
+            ObjectCache.put(ObjectCache.COMMIT, UID, commit, COMMIT_WEIGHT
+                    + 2L * (commit.getMessage() == null ? 0 : commit.getMessage().length()));
+            return commit;
         }
         else {
             return null;
         }
     }
-    public static Blob getBlob(String UID) {
-        File UIDFile = new File(Blob.BLOB_FOLDER, UID);
-        List <String> blobs = Utils.plainFilenamesIn(Blob.BLOB_FOLDER);
-        if (blobs != null) {
-            if (blobs.contains(UID)) {
-                return Utils.readObject(UIDFile, Blob.class);
-            } else {
-                return null;
-            }
+    /**
+     * Retrieve the message, time and parents of commit UID, reading no
+     * further than its header, or null if there is no such commit.
+     */
+    public static Codec.Header getCommitHeader(String UID) {
+        if (!CommitGraph.get().contains(UID)) {
+            return null;
+        }
+        try (InputStream in = openCommit(UID)) {
+            Codec.Header header = Codec.readHeader(in);
+            return new Codec.Header(UID, header.message, header.timestamp, header.parents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return null;
     }
-
-    public static void stageFile(String UID, String file_name) {
-        if(!StagingArea.exists()) {
-            StagingArea.mkdir();
+    static InputStream openCommit(String UID) throws IOException {
+        File UIDFile = new File(Commit.COMMITS_FOLDER, UID);
+        Trace.Counter.OBJECTS_READ.add(1);
+        if (UIDFile.exists()) {
+            return Files.newInputStream(UIDFile.toPath());
         }
-        File stage = new File(StagingArea, file_name) ;
-        if (stage.exists()) {
-            stage.delete();
+        return Pack.open(UID);
+    }
+    public static Blob getBlob(String UID) {
+        if (ObjectCache.get(ObjectCache.BLOB, UID) != null || Blob.exists(UID)
+                || Remote.prefetch(Collections.singleton(UID))) {
+            return new Blob(UID);
         }
-        try{
-            stage.createNewFile();
-        } catch (IOException exp){
+        return null;
+    }
 
-        }
-        Utils.writeContents(stage, UID);
+    /**
+     * Writes blob UID to working file DEST and records its stat data, so
+     * the next status does not rehash it.
+     */
+    public static void restoreFile(String UID, File dest) {
+        Blob.restore(UID, dest);
+        StatCache.get().record(dest, UID);
     }
-    public static void stageOverwrite(File stage,String file_name) {
-        List<String> stageStatus = Utils.plainFilenamesIn(stage);
-        if (stageStatus!=null) {
-            if (stageStatus.contains(file_name)) {
-                //overwrite
-                File oldState = new File(stage, file_name);
-                oldState.delete();
-            }
-        }
+
+    public static void stageFile(String UID, String file_name) {
+        Stage.get().add(file_name, UID);
     }
     public static void stageRemove(String UID, String file_name) {
-        if(!filesForRemove.exists()) {
-            filesForRemove.mkdir();
-        }
-        File remove = new File(filesForRemove, file_name);
-        try{
-            remove.createNewFile();
-        } catch (IOException exp){
+        Stage.get().remove(file_name, UID);
+    }
 
+    /**
+     * Ends the current command. Exits the process, or when running a
+     * command for the daemon, returns control to it.
+     */
+    static void exit() {
+        Durable.sync();
+        Trace.end();
+        if (Daemon.isServing()) {
+            throw new Daemon.Exit();
         }
-        Utils.writeContents(remove, UID);
+        System.exit(0);
     }
-
     public static void validateNumArgs(String cmd, String[] args, int n) {
         if (args.length != n) {
             throw new RuntimeException(
                     String.format("Invalid number of arguments for: %s.", cmd));
         }
     }
-    public static String findCommitHash(Commit commit) {
-        if (commit.getParent()==null) {
-            return Utils.sha1(commit.getMessage(), commit.getBlobs().toString(), commit.getTimeStamp().toString());
+    public static void validateMinNumArgs(String cmd, String[] args, int n) {
+        if (args.length < n) {
+            throw new RuntimeException(
+                    String.format("Invalid number of arguments for: %s.", cmd));
         }
-        return Utils.sha1(commit.getMessage(),commit.getParent(), commit.getBlobs().toString(), commit.getTimeStamp().toString());
     }
     public static  String findBlobHash(Blob blob) {
-
-        return Utils.sha1(blob.getContents());
+        return blob.getHash();
     }
     public static ArrayList<String> getUntrackedFiles() {
         //not tracked or staged
-        List <String> presentFiles  = Utils.plainFilenamesIn(CWD);
-        List <String> stagedFiles = Utils.plainFilenamesIn(StagingArea);
+        List <String> presentFiles  = Trace.list(CWD);
         ArrayList <String> result = new ArrayList<>();
+        LinkedHashMap<String, String> trackedFiles = getHeadCommit().getBlobs();
         if (presentFiles != null) {
             for (String s: presentFiles) {
                 int check = 1;
-                if (getHeadCommit().getBlobs().containsKey(s)) {
+                if (trackedFiles.containsKey(s)) {
                     check *= 0;
                 }
-                if (stagedFiles != null) {
-                    if (stagedFiles.contains(s)) {
-                        check *= 0;
-                    }
+                if (Stage.get().isStaged(s)) {
+                    check *= 0;
                 }
                 if (check == 1) {
                     result.add(s);
@@ -723,10 +897,11 @@ public class Main {
         getHeadCommit().getBlobs().entrySet().forEach(entry -> {
             File thisFile = new File(CWD, entry.getKey());
             if(thisFile.exists()) {
-                if(!Utils.sha1(Utils.readContentsAsString(thisFile)).equals(entry.getValue())) {
-                    File stageFile = new File(StagingArea, entry.getKey());
-                    if (stageFile.exists()) {
-                        if (!Utils.readContentsAsString(stageFile).equals(Utils.sha1(Utils.readContentsAsString(thisFile)))) {
+                String fileHash = StatCache.get().hash(thisFile);
+                if(!fileHash.equals(entry.getValue())) {
+                    String stagedHash = Stage.get().getStaged(entry.getKey());
+                    if (stagedHash != null) {
+                        if (!stagedHash.equals(fileHash)) {
                             result.add(entry.getKey());
                             System.out.println(entry.getKey() + "(modified)");
                         }
@@ -736,89 +911,86 @@ public class Main {
                     }
                 }
             } else {
-                File removeFile = new File(filesForRemove, entry.getKey());
-                if (!removeFile.exists()) {
+                if (!Stage.get().isRemoved(entry.getKey())) {
                     result.add(entry.getKey());
                     System.out.println(entry.getKey()  + " (deleted)");
                 }
             }
         });
 
-        List <String> stagedFiles = Utils.plainFilenamesIn(StagingArea);
-        if(stagedFiles!=null) {
-            for (String s: stagedFiles) {
-                File thisStagedFile = new File(StagingArea, s);
-                File thisCWDFile = new File(CWD, s);
-                if (thisCWDFile.exists()) {
-                    if (!Utils.sha1(Utils.readContentsAsString(thisCWDFile)).equals(Utils.readContentsAsString(thisStagedFile))) {
-                        if(!result.contains(s)) {
-                            result.add(s);
-                            System.out.println(s  + " (modified)");
-                        }
-                    }
-                } else {
+        for (Map.Entry<String, String> staged: Stage.get().getAdded().entrySet()) {
+            String s = staged.getKey();
+            File thisCWDFile = new File(CWD, s);
+            if (thisCWDFile.exists()) {
+                if (!StatCache.get().hash(thisCWDFile).equals(staged.getValue())) {
                     if(!result.contains(s)) {
                         result.add(s);
-                        System.out.println(s  + " (deleted)");
+                        System.out.println(s  + " (modified)");
                     }
                 }
+            } else {
+                if(!result.contains(s)) {
+                    result.add(s);
+                    System.out.println(s  + " (deleted)");
+                }
             }
         }
         return result;
     }
+    /**
+     * Returns the latest common ancestor of the head commit and the head of
+     * branch GIVEN, following every parent of merge commits.
+     */
     public static String getSplitPoint(String given) {
-        ArrayList<String> currentBranchHistory = new ArrayList<>();
-        ArrayList<String> givenBranchHistory = new ArrayList<>();
-        Commit start = getHeadCommit();
-        while(true) {
-            currentBranchHistory.add(findCommitHash(start));
-            if (start.getParent() == null) {
-                break;
-            }
-            start = getCommit(start.getParent());
-        }
-        File headFile = new File(GITLET_DIR, "HEAD");
-        String currentBranch = Utils.readContentsAsString(headFile);
-        headFile.delete();
-        Utils.writeContents(headFile, given);
-        Commit begin = getHeadCommit();
-        while(true) {
-            givenBranchHistory.add(findCommitHash(begin));
-            if (begin.getParent() == null) {
-                break;
-            }
-            begin = getCommit(begin.getParent());
-        }
-        if (currentBranchHistory.size() > 0 && givenBranchHistory.size() > 0) {
-            for (int x = 0; x < currentBranchHistory.size(); x++ ) {
-                if (givenBranchHistory.contains(currentBranchHistory.get(x))) {
-                    headFile.delete();
-                    Utils.writeContents(headFile, currentBranch);
-                    return currentBranchHistory.get(x);
-                }
-            }
+        String givenHead = Utils.readContentsAsString(new File(BRANCHES_DIR, given));
+        Trace.Phase phase = Trace.phase("split-point");
+        try {
+            return CommitGraph.get().mergeBase(getHead(), givenHead);
+        } finally {
+            phase.end();
         }
-        headFile.delete();
-        Utils.writeContents(headFile, currentBranch);
-        return null;
     }
-    public static Boolean isModified(String compared, String compareTo) {
-        Blob comparedBlob = getBlob(compared);
-        Blob compareToBlob = getBlob(compareTo);
-        if (comparedBlob != null) {
-            if (compareToBlob != null) {
-                if (compareToBlob.getContents().equals(comparedBlob.getContents())) {
-                    return false;
-                }
-                return true;
-            }
-            return true;
-        } else {
-            if (compareToBlob != null) {
-                return true;
-            }
-            return false;
-        }
+    /**
+     * True if blob hashes COMPARED and COMPARETO name different contents,
+     * either being null for an absent file. Blobs are content-addressed,
+     * so no contents are read.
+     */
+    public static boolean isModified(String compared, String compareTo) {
+        return !Objects.equals(compared, compareTo);
+    }
+    /**
+     * Merges blobs HEAD and GIVEN line by line against SPLIT, null if the
+     * file was added on both sides, into CWDFILE and stages it as KEY.
+     * Only overlapping hunks are marked as conflicts; binary files conflict
+     * whole.
+     */
+    private static void mergeFile(File cwdFile, String key, String split, String head,
+                                  String given) {
+        byte[] base = split == null ? new byte[0] : Blob.readAll(split);
+        byte[] headContents = Blob.readAll(head);
+        byte[] givenContents = Blob.readAll(given);
+        if (Diff.isBinary(base) || Diff.isBinary(headContents) || Diff.isBinary(givenContents)) {
+            writeConflict(cwdFile, key, head, given);
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(cwdFile.toPath()), OUTPUT_BUFFER)) {
+            if (LineMerge.merge(base, headContents, givenContents, out)) {
+                _conflictUsed = true;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        stageFile(Blob.store(cwdFile), key);
+    }
+    /**
+     * Writes the conflict between blobs HEAD and GIVEN, either null if the
+     * file is absent on that side, to CWDFILE and stages it as KEY.
+     */
+    private static void writeConflict(File cwdFile, String key, String head, String given) {
+        Utils.writeContents(cwdFile, conflictString(head == null ? null : getBlob(head),
+                given == null ? null : getBlob(given)));
+        stageFile(Blob.store(cwdFile), key);
     }
     public static String conflictString(Blob head, Blob given) {
         _conflictUsed = true;
@@ -842,8 +1014,9 @@ public class Main {
     public static void checkInit() {
         if (!GITLET_DIR.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            exit();
         }
+        Codec.migrate();
     }
 
     private static Boolean _conflictUsed;
@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Persistent index of commit messages. Exact messages and every three-char
+ * substring of them are hashed into buckets of 40-byte records (key hash,
+ * commit UID), so find reads one small bucket instead of every commit.
+ * Buckets are appended to as commits are made and rebuilt from the commit
+ * graph if the index is missing.
+ * @author victorcruz
+ */
+public class MessageIndex {
+    /** Folder the index lives in. */
+    static final File INDEX_DIR = new File(Main.GITLET_DIR, "messages");
+
+    /** Length of the substrings indexed for substring search. */
+    static final int GRAM = 3;
+
+    private static final String EXACT = "exact";
+    private static final String GRAMS = "grams";
+    private static final int RECORD = 40;
+    /** Hex digits of the key hash naming its bucket. */
+    private static final int BUCKET_DIGITS = 3;
+    /** Bytes of records a rebuild holds before writing them out. */
+    private static final int REBUILD_BATCH = 1 << 26;
+
+    /**
+     Records commit UID with MESSAGE.
+     */
+    public static void add(String UID, String message) {
+        if (!INDEX_DIR.exists()) {
+            rebuild();
+            return;
+        }
+        HashMap<String, ByteArrayOutputStream> records = new HashMap<>();
+        addRecords(records, UID, message);
+        flush(INDEX_DIR, records);
+    }
+
+    /**
+     Retrieve the UIDs of commits whose message is MESSAGE, sorted.
+     */
+    public static List<String> find(String message) {
+        ensureBuilt();
+        return new ArrayList<>(lookup(EXACT, message));
+    }
+
+    /**
+     Retrieve the UIDs of commits whose message contains TEXT, sorted.
+     Candidates sharing every indexed substring of TEXT are checked against
+     their message; TEXT shorter than GRAM is matched against every commit.
+     */
+    public static List<String> search(String text) {
+        List<String> result = new ArrayList<>();
+        if (text.length() < GRAM) {
+            CommitGraph graph = CommitGraph.get();
+            for (String UID : graph.getUIDs()) {
+                String message = graph.getNode(UID).message;
+                if (message != null && message.contains(text)) {
+                    result.add(UID);
+                }
+            }
+            return result;
+        }
+        ensureBuilt();
+        TreeSet<String> candidates = null;
+        for (String gram : grams(text)) {
+            TreeSet<String> UIDs = lookup(GRAMS, gram);
+            if (candidates == null) {
+                candidates = UIDs;
+            } else {
+                candidates.retainAll(UIDs);
+            }
+            if (candidates.isEmpty()) {
+                return result;
+            }
+        }
+        for (String UID : candidates) {
+            Codec.Header header = Main.getCommitHeader(UID);
+            if (header != null && header.message != null && header.message.contains(text)) {
+                result.add(UID);
+            }
+        }
+        return result;
+    }
+
+    private static void ensureBuilt() {
+        if (!INDEX_DIR.exists()) {
+            rebuild();
+        }
+    }
+
+    /**
+     Rebuilds the index from the commit graph into a temporary folder and
+     moves it into place, so a partial index is never left behind. If
+     another process moved its index into place first, ours is dropped.
+     */
+    private static void rebuild() {
+        File temp;
+        try {
+            temp = Files.createTempDirectory(Main.GITLET_DIR.toPath(), "messages.").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        new File(temp, EXACT).mkdirs();
+        new File(temp, GRAMS).mkdirs();
+        CommitGraph graph = CommitGraph.get();
+        HashMap<String, ByteArrayOutputStream> records = new HashMap<>();
+        long pending = 0;
+        for (String UID : graph.getUIDs()) {
+            pending += addRecords(records, UID, graph.getNode(UID).message);
+            if (pending >= REBUILD_BATCH) {
+                flush(temp, records);
+                records.clear();
+                pending = 0;
+            }
+        }
+        flush(temp, records);
+        Durable.sync();
+        try {
+            Files.move(temp.toPath(), INDEX_DIR.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            deleteIndex(temp);
+            if (!INDEX_DIR.exists()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     Adds the records for UID and MESSAGE to RECORDS, keyed by bucket path,
+     and returns the number of bytes added.
+     */
+    private static long addRecords(Map<String, ByteArrayOutputStream> records,
+                                   String UID, String message) {
+        if (message == null) {
+            return 0;
+        }
+        byte[] id = Pack.toBytes(UID);
+        long added = addRecord(records, EXACT, message, id);
+        for (String gram : grams(message)) {
+            added += addRecord(records, GRAMS, gram, id);
+        }
+        return added;
+    }
+
+    private static long addRecord(Map<String, ByteArrayOutputStream> records,
+                                  String kind, String key, byte[] id) {
+        byte[] keyHash = keyHash(key);
+        String bucket = kind + File.separator + bucketOf(keyHash);
+        ByteArrayOutputStream out = records.computeIfAbsent(bucket,
+                k -> new ByteArrayOutputStream());
+        out.write(keyHash, 0, keyHash.length);
+        out.write(id, 0, id.length);
+        return RECORD;
+    }
+
+    /**
+     Appends RECORDS to their buckets under DIR, first cutting off any torn
+     trailing record so the new ones start on a record boundary.
+     */
+    private static void flush(File dir, Map<String, ByteArrayOutputStream> records) {
+        for (Map.Entry<String, ByteArrayOutputStream> entry : records.entrySet()) {
+            File bucket = new File(dir, entry.getKey());
+            bucket.getParentFile().mkdirs();
+            try (FileChannel out = FileChannel.open(bucket.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long size = out.size();
+                if (size % RECORD != 0) {
+                    out.truncate(size - size % RECORD);
+                }
+                ByteBuffer data = ByteBuffer.wrap(entry.getValue().toByteArray());
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Durable.appended(bucket);
+        }
+    }
+
+    /**
+     Retrieve the UIDs recorded under KEY in the KIND index, sorted. A torn
+     trailing record from an interrupted append is ignored.
+     */
+    private static TreeSet<String> lookup(String kind, String key) {
+        TreeSet<String> result = new TreeSet<>();
+        byte[] keyHash = keyHash(key);
+        File bucket = new File(new File(INDEX_DIR, kind), bucketOf(keyHash));
+        if (!bucket.exists()) {
+            return result;
+        }
+        byte[] data = Utils.readContents(bucket);
+        for (int i = 0; i + RECORD <= data.length; i += RECORD) {
+            if (Arrays.equals(data, i, i + keyHash.length, keyHash, 0, keyHash.length)) {
+                result.add(Blob.toHex(Arrays.copyOfRange(data, i + keyHash.length, i + RECORD)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     Retrieve the distinct substrings of length GRAM in TEXT.
+     */
+    private static Iterable<String> grams(String text) {
+        if (text.length() < GRAM) {
+            return Collections.emptyList();
+        }
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            result.add(text.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    private static byte[] keyHash(String key) {
+        MessageDigest md = Blob.newDigest();
+        Commit.hashField(md, key);
+        return md.digest();
+    }
+
+    private static String bucketOf(byte[] keyHash) {
+        return Blob.toHex(keyHash).substring(0, BUCKET_DIGITS);
+    }
+
+    private static void deleteIndex(File dir) {
+        File[] kinds = dir.listFiles();
+        if (kinds != null) {
+            for (File kind : kinds) {
+                File[] buckets = kind.listFiles();
+                if (buckets != null) {
+                    for (File bucket : buckets) {
+                        bucket.delete();
+                    }
+                }
+                kind.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of objects read from the repository, bounded by
+ * an estimate of their size in bytes. Objects are content-addressed and
+ * never change, so entries stay valid for the life of the process, daemon
+ * included. Cached objects are shared and must not be modified.
+ * @author victorcruz
+ */
+public class ObjectCache {
+    /** Most bytes of objects held at once. */
+    static final long MAX_BYTES = 64L << 20;
+
+    /** Objects larger than this are never cached. */
+    static final long MAX_OBJECT_BYTES = MAX_BYTES / 8;
+
+    /** Kind of a cached commit. */
+    static final char COMMIT = 'c';
+    /** Kind of cached blob bytes. */
+    static final char BLOB = 'b';
+    /** Kind of a cached tree. */
+    static final char TREE = 't';
+
+    /**
+     Retrieve the object of KIND with id UID, or null if it is not cached.
+     */
+    @SuppressWarnings("unchecked")
+    static synchronized <T> T get(char kind, String UID) {
+        Entry entry = _entries.get(kind + UID);
+        if (entry == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return (T) entry.value;
+    }
+
+    /**
+     Caches VALUE, the object of KIND with id UID, estimated at WEIGHT
+     bytes, evicting the least recently used objects to stay in bounds.
+     */
+    static synchronized void put(char kind, String UID, Object value, long weight) {
+        if (weight > MAX_OBJECT_BYTES) {
+            return;
+        }
+        Entry old = _entries.put(kind + UID, new Entry(value, weight));
+        if (old != null) {
+            _bytes -= old.weight;
+        }
+        _bytes += weight;
+        Iterator<Entry> eldest = _entries.values().iterator();
+        while (_bytes > MAX_BYTES && eldest.hasNext()) {
+            _bytes -= eldest.next().weight;
+            eldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /**
+     Number of lookups that found their object.
+     */
+    static synchronized long hits() {
+        return _hits;
+    }
+
+    /**
+     Number of lookups that did not.
+     */
+    static synchronized long misses() {
+        return _misses;
+    }
+
+    /**
+     Number of objects evicted to stay in bounds.
+     */
+    static synchronized long evictions() {
+        return _evictions;
+    }
+
+    /**
+     Estimated bytes currently cached.
+     */
+    static synchronized long bytes() {
+        return _bytes;
+    }
+
+    private static class Entry {
+        final Object value;
+        final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     Key: object kind followed by its id.
+     Value: the object and its weight, least recently used first.
+     */
+    private static final Map<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long _bytes;
+    private static long _hits;
+    private static long _misses;
+    private static long _evictions;
+}
@@ -0,0 +1,487 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Packfiles consolidate loose objects into one compressed, append-only file.
+ * Each pack-X.pack has a pack-X.idx holding fixed-size records sorted by
+ * object id, so lookups are a binary search over the memory-mapped index and
+ * reads inflate straight out of a mapped region of the pack.
+ * @author victorcruz
+ */
+public class Pack {
+    /** Folder packs live in. */
+    static final File PACK_DIR = new File(Main.GITLET_DIR, "packs");
+
+    /** Object type of a packed commit. */
+    static final byte COMMIT = 1;
+    /** Object type of a packed blob. */
+    static final byte BLOB = 2;
+    /** Object type of a packed blob delta. */
+    static final byte DELTA = 3;
+    /** Object type of a packed tree. */
+    static final byte TREE = 4;
+
+    /** Blobs larger than this stay loose; mapped regions are int-sized. */
+    static final long MAX_PACKED_SIZE = 1L << 28;
+
+    /** Length of an object id in bytes. */
+    static final int ID_LENGTH = 20;
+    /** Id, type, offset and compressed length. */
+    private static final int RECORD_LENGTH = ID_LENGTH + 1 + 8 + 8;
+    /** Magic number and entry count. */
+    private static final int INDEX_HEADER = 8;
+    private static final int INDEX_MAGIC = 0x47494458;
+    private static final int PACK_MAGIC = 0x4750414b;
+
+    /**
+     Location of one object within a pack.
+     */
+    static class Entry {
+        final Pack pack;
+        final byte type;
+        final long offset;
+        final long length;
+
+        Entry(Pack pack, byte type, long offset, long length) {
+            this.pack = pack;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private Pack(File packFile, File indexFile) {
+        _packFile = packFile;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            _index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_index.getInt(0) != INDEX_MAGIC) {
+            throw new IllegalArgumentException("Corrupt pack index " + indexFile);
+        }
+        _count = _index.getInt(4);
+    }
+
+    /**
+     Returns every pack in the repository, opening them on first use.
+     */
+    public static synchronized List<Pack> all() {
+        if (_packs == null) {
+            List<Pack> packs = new ArrayList<>();
+            List<String> names = Trace.list(PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        String base = name.substring(0, name.length() - ".idx".length());
+                        packs.add(new Pack(new File(PACK_DIR, base + ".pack"),
+                                new File(PACK_DIR, name)));
+                    }
+                }
+            }
+            _packs = packs;
+        }
+        return _packs;
+    }
+
+    /**
+     Finds object UID in any pack, or returns null.
+     */
+    public static Entry find(String UID) {
+        if (UID == null || UID.length() != 2 * ID_LENGTH) {
+            return null;
+        }
+        byte[] id = toBytes(UID);
+        for (Pack pack : all()) {
+            Entry entry = pack.lookup(id);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     True if some pack holds object UID.
+     */
+    public static boolean contains(String UID) {
+        return find(UID) != null;
+    }
+
+    /**
+     Opens a stream over the inflated bytes of packed object UID.
+     */
+    public static InputStream open(String UID) throws IOException {
+        Entry entry = find(UID);
+        if (entry == null) {
+            throw new IOException("No packed object " + UID);
+        }
+        return entry.pack.open(entry);
+    }
+
+    /**
+     Reads the whole of packed object UID into memory.
+     */
+    public static byte[] readAll(String UID) {
+        try (InputStream in = open(UID)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Lists the ids of every packed object of type TYPE.
+     */
+    public static List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        for (Pack pack : all()) {
+            for (int i = 0; i < pack._count; i++) {
+                int record = INDEX_HEADER + i * RECORD_LENGTH;
+                if (pack._index.get(record + ID_LENGTH) == type) {
+                    result.add(pack.idAt(record));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     Moves every loose commit, tree, blob and delta, and every object of
+     the existing packs, into one new pack, then deletes the loose copies
+     and the old packs, so lookups search a single index. Returns the
+     number of loose objects packed.
+     */
+    public static int packLooseObjects() {
+        List<String> commits = Trace.list(Commit.COMMITS_FOLDER);
+        List<String> blobs = Trace.list(Blob.BLOB_FOLDER);
+        List<String> deltas = Trace.list(Delta.DELTA_FOLDER);
+        List<String> trees = Trace.list(Tree.TREE_FOLDER);
+        List<File> files = new ArrayList<>();
+        List<Byte> types = new ArrayList<>();
+        if (commits != null) {
+            for (String UID : commits) {
+                if (UID.length() == 2 * ID_LENGTH) {
+                    files.add(new File(Commit.COMMITS_FOLDER, UID));
+                    types.add(COMMIT);
+                }
+            }
+        }
+        if (blobs != null) {
+            for (String UID : blobs) {
+                File blob = new File(Blob.BLOB_FOLDER, UID);
+                if (UID.length() == 2 * ID_LENGTH && blob.length() <= MAX_PACKED_SIZE) {
+                    files.add(blob);
+                    types.add(BLOB);
+                }
+            }
+        }
+        if (trees != null) {
+            for (String UID : trees) {
+                if (UID.length() == 2 * ID_LENGTH) {
+                    files.add(new File(Tree.TREE_FOLDER, UID));
+                    types.add(TREE);
+                }
+            }
+        }
+        if (deltas != null) {
+            for (String UID : deltas) {
+                if (UID.length() == 2 * ID_LENGTH) {
+                    files.add(new File(Delta.DELTA_FOLDER, UID));
+                    types.add(DELTA);
+                }
+            }
+        }
+        List<Pack> old = all();
+        if (files.isEmpty() && old.size() <= 1) {
+            return 0;
+        }
+        Set<String> added = new HashSet<>();
+        Builder builder = new Builder();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                added.add(file.getName());
+                try (InputStream in = Files.newInputStream(file.toPath())) {
+                    builder.add(file.getName(), types.get(i), in);
+                }
+            }
+            for (Pack pack : old) {
+                for (int i = 0; i < pack._count; i++) {
+                    int record = INDEX_HEADER + i * RECORD_LENGTH;
+                    String UID = pack.idAt(record);
+                    if (added.add(UID)) {
+                        Entry entry = pack.entryAt(record);
+                        try (InputStream in = pack.open(entry)) {
+                            builder.add(UID, entry.type, in);
+                        }
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        builder.finish();
+        for (File file : files) {
+            file.delete();
+        }
+        for (Pack pack : old) {
+            if (!pack._packFile.equals(builder._packFile)) {
+                String base = pack._packFile.getName();
+                base = base.substring(0, base.length() - ".pack".length());
+                new File(PACK_DIR, base + ".idx").delete();
+                pack._packFile.delete();
+            }
+        }
+        return files.size();
+    }
+
+    /**
+     Writes objects into a new pack as they arrive, in any order. The pack
+     is named by its sorted object ids, and finish() renames its index into
+     place last, so a pack is only visible once it is complete and on disk.
+     */
+    static class Builder {
+        Builder() {
+            if (!PACK_DIR.exists()) {
+                PACK_DIR.mkdir();
+            }
+            try {
+                _temp = Durable.tempFor(new File(PACK_DIR, "pack"));
+                _out = new CountingOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(_temp.toFile())));
+                _out.write(ByteBuffer.allocate(4).putInt(PACK_MAGIC).array());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         Adds object UID of TYPE, compressing the bytes read from IN.
+         */
+        void add(String UID, byte type, InputStream in) throws IOException {
+            long offset = _out.count;
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            DeflaterOutputStream deflated =
+                    new DeflaterOutputStream(_out, deflater, Blob.BUFFER_SIZE);
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                deflated.write(buffer, 0, n);
+            }
+            deflated.finish();
+            deflater.end();
+            _records.add(ByteBuffer.allocate(RECORD_LENGTH).put(toBytes(UID)).put(type)
+                    .putLong(offset).putLong(_out.count - offset).array());
+        }
+
+        /**
+         Moves the pack and its index into place, or drops the pack if
+         nothing was added. Returns the number of objects packed.
+         */
+        int finish() {
+            try {
+                _out.close();
+                if (_records.isEmpty()) {
+                    Files.delete(_temp);
+                    return 0;
+                }
+                Trace.Counter.BYTES_WRITTEN.add(_out.count);
+                _records.sort((a, b) -> Arrays.compareUnsigned(a, 0, ID_LENGTH,
+                        b, 0, ID_LENGTH));
+                StringBuilder names = new StringBuilder();
+                ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER
+                        + _records.size() * RECORD_LENGTH);
+                index.putInt(INDEX_MAGIC).putInt(_records.size());
+                for (byte[] record : _records) {
+                    names.append(Blob.toHex(Arrays.copyOf(record, ID_LENGTH)));
+                    index.put(record);
+                }
+                String packName = "pack-" + Utils.sha1(names.toString());
+                _packFile = new File(PACK_DIR, packName + ".pack");
+                Durable.install(_temp, _packFile);
+                Durable.write(new File(PACK_DIR, packName + ".idx"), index.array());
+                Durable.sync();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            reset();
+            return _records.size();
+        }
+
+        private final Path _temp;
+        private final CountingOutputStream _out;
+
+        /** The finished pack, once there is one. */
+        private File _packFile;
+
+        /** Index records of the objects added, in the order added. */
+        private final List<byte[]> _records = new ArrayList<>();
+    }
+
+    /**
+     Drops the packs opened by this process, so the next lookup lists the
+     pack folder again.
+     */
+    static synchronized void reset() {
+        _packs = null;
+    }
+
+    private Entry lookup(byte[] id) {
+        int lo = 0;
+        int hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int record = INDEX_HEADER + mid * RECORD_LENGTH;
+            int cmp = compareId(record, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return entryAt(record);
+            }
+        }
+        return null;
+    }
+
+    private Entry entryAt(int record) {
+        return new Entry(this, _index.get(record + ID_LENGTH),
+                _index.getLong(record + ID_LENGTH + 1),
+                _index.getLong(record + ID_LENGTH + 9));
+    }
+
+    private int compareId(int record, byte[] id) {
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int cmp = Integer.compare(_index.get(record + i) & 0xff, id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String idAt(int record) {
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++) {
+            id[i] = _index.get(record + i);
+        }
+        return Blob.toHex(id);
+    }
+
+    private InputStream open(Entry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(_packFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                    entry.offset, entry.length);
+            return new InflatingStream(new ByteBufferInputStream(region));
+        }
+    }
+
+    static byte[] toBytes(String UID) {
+        byte[] result = new byte[UID.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(UID.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     Stream over a mapped region.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        ByteBufferInputStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return _buffer.hasRemaining() ? _buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, n);
+            return n;
+        }
+
+        private final ByteBuffer _buffer;
+    }
+
+    /**
+     Inflating stream that frees its inflater's native memory on close,
+     which InflaterInputStream only does for an inflater of its own.
+     */
+    private static class InflatingStream extends InflaterInputStream {
+        InflatingStream(InputStream in) {
+            super(in, new Inflater(), Blob.BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     Output stream that tracks how many bytes went through it.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long count;
+    }
+
+    /** Packs opened by this process. */
+    private static List<Pack> _packs;
+
+    /** The pack data file. */
+    private final File _packFile;
+    /** The mapped index. */
+    private final MappedByteBuffer _index;
+    /** Number of objects in this pack. */
+    private final int _count;
+}
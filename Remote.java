@@ -0,0 +1,742 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remotes: other repositories on this filesystem, named in .gitlet/remotes.
+ * fetch and push start gitlet in the other repository, as upload-pack or
+ * receive-pack, and talk to it over its standard streams. The sending side
+ * walks back from the head it sends, asking the receiving side in batches
+ * which commits it already has and stopping at those. It then streams only
+ * the missing commits, and the trees and blobs they add to what the commits
+ * the receiver has already hold, which the receiver writes as one pack. So
+ * a sync costs in proportion to the new history, not the whole repository.
+ *
+ * clone can stop the walk a number of commits back, grafting the oldest
+ * commits it takes, and can leave blobs behind to be fetched from the
+ * origin the first time something reads them.
+ * @author victorcruz
+ */
+public class Remote {
+    /** Folder holding the location of each remote, by name. */
+    static final File REMOTES_DIR = new File(Main.GITLET_DIR, "remotes");
+
+    /** Name clone gives the repository it copies. */
+    static final String ORIGIN = "origin";
+
+    /**
+     Present in a clone made without blobs; names the remote that has
+     them.
+     */
+    static final File PROMISOR_FILE = new File(Main.GITLET_DIR, "promisor");
+
+    /** Most commits asked about at once. */
+    private static final int BATCH = 256;
+
+    /**
+     Records remote ARGS[1] as the repository in folder ARGS[2], a .gitlet
+     folder.
+     */
+    public static void addRemote(String[] args) {
+        File remote = new File(REMOTES_DIR, args[1]);
+        if (remote.exists()) {
+            System.out.println("A remote with that name already exists.");
+            Main.exit();
+        }
+        REMOTES_DIR.mkdir();
+        Durable.writeRef(remote, args[2].replace("/", File.separator));
+    }
+
+    /**
+     Forgets remote ARGS[1].
+     */
+    public static void rmRemote(String[] args) {
+        File remote = new File(REMOTES_DIR, args[1]);
+        if (!remote.exists()) {
+            System.out.println("A remote with that name does not exist.");
+            Main.exit();
+        }
+        remote.delete();
+    }
+
+    /**
+     Copies branch ARGS[2] of remote ARGS[1] and the history it needs into
+     this repository, as branch ARGS[1]/ARGS[2].
+     */
+    public static void fetch(String[] args) {
+        fetch(args[1], args[2], 0, !PROMISOR_FILE.exists());
+    }
+
+    /**
+     Fetches branch ARGS[2] of remote ARGS[1] and merges it into the
+     current branch.
+     */
+    public static void pull(String[] args) {
+        fetch(args[1], args[2], 0, !PROMISOR_FILE.exists());
+        Main.merge(new String[] {"merge", args[1] + "/" + args[2]});
+    }
+
+    /**
+     Sends the head commit and the history it needs to remote ARGS[1], and
+     moves its branch ARGS[2] there. The branch must not have commits this
+     repository lacks.
+     */
+    public static void push(String[] args) {
+        try (Peer peer = connect(args[1], "receive-pack", args[2])) {
+            String head = Main.getHead();
+            String remoteHead = peer.in.readUTF();
+            CommitGraph graph = CommitGraph.get();
+            boolean ahead = remoteHead.isEmpty() || (graph.contains(remoteHead)
+                    && remoteHead.equals(graph.mergeBase(head, remoteHead)));
+            peer.out.writeBoolean(ahead);
+            peer.out.flush();
+            if (!ahead) {
+                System.out.println("Please pull down remote changes before pushing.");
+                Main.exit();
+            }
+            send(peer.in, peer.out, head, 0, true);
+            if (!peer.in.readBoolean()) {
+                System.out.println("Remote branch changed during push; push again.");
+                Main.exit();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Makes the empty current directory a checked-out copy of the repository
+     in folder ARGS[1], at branch ARGS[2] or else its current branch. Takes
+     "--depth N" to copy only the last N commits of history, and "--lazy" to
+     copy only the blobs checkout needs, fetching others from the origin
+     when they are first read.
+     */
+    public static void clone(String[] args) {
+        int depth = 0;
+        boolean lazy = false;
+        List<String> operands = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--depth") && i + 1 < args.length) {
+                depth = Main.parseCount(args[++i]);
+            } else if (args[i].equals("--lazy")) {
+                lazy = true;
+            } else {
+                operands.add(args[i]);
+            }
+        }
+        if (operands.isEmpty() || operands.size() > 2 || depth < 0) {
+            System.out.println("Incorrect operands.");
+            Main.exit();
+        }
+        if (Main.GITLET_DIR.exists()) {
+            System.out.println("A Gitlet version-control system already exists in the current directory.");
+            Main.exit();
+        }
+        File source = new File(operands.get(0).replace("/", File.separator)).getAbsoluteFile();
+        if (new File(source, ".gitlet").isDirectory()) {
+            source = new File(source, ".gitlet");
+        }
+        if (!new File(source, "HEAD").isFile()) {
+            System.out.println("Remote directory not found.");
+            Main.exit();
+        }
+        String branch = operands.size() == 2 ? operands.get(1)
+                : Utils.readContentsAsString(new File(source, "HEAD"));
+        if (!new File(new File(source, "branches"), branch).isFile()) {
+            System.out.println("That remote does not have that branch.");
+            Main.exit();
+        }
+        List<String> present = Trace.list(Main.CWD);
+        if (present != null && !present.isEmpty()) {
+            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
+            Main.exit();
+        }
+        Thread discard = new Thread(() -> deleteAll(Main.GITLET_DIR));
+        Runtime.getRuntime().addShutdownHook(discard);
+        boolean cloned = false;
+        try {
+            Main.initFolders();
+            Lock.acquire("clone", Map.of(source, true));
+            REMOTES_DIR.mkdir();
+            Durable.writeRef(new File(REMOTES_DIR, ORIGIN), source.getPath());
+            if (lazy) {
+                Durable.writeRef(PROMISOR_FILE, ORIGIN);
+            }
+            String head = fetch(ORIGIN, branch, depth, !lazy);
+            Durable.writeRef(new File(Main.BRANCHES_DIR, branch), head);
+            Durable.writeRef(new File(Main.GITLET_DIR, "HEAD"), branch);
+            Checkout.materialize(new LinkedHashMap<>(), Main.getCommit(head).getBlobs());
+            cloned = true;
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(discard);
+            if (!cloned) {
+                Lock.releaseAll();
+                deleteAll(Main.GITLET_DIR);
+            }
+        }
+    }
+
+    /**
+     Deletes FILE and, if it is a folder, everything in it. A clone that
+     stops early, by an error or by exiting, drops the .gitlet it started
+     so the directory is not left holding half a repository.
+     */
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     Fetches the blobs among UIDS this repository lacks from the remote a
+     partial clone was made from. Returns false if nothing was fetched.
+     */
+    static synchronized boolean prefetch(Collection<String> UIDs) {
+        if (!PROMISOR_FILE.exists()) {
+            return false;
+        }
+        List<String> absent = new ArrayList<>();
+        for (String UID : new HashSet<>(UIDs)) {
+            if (!Blob.exists(UID)) {
+                absent.add(UID);
+            }
+        }
+        if (absent.isEmpty()) {
+            return false;
+        }
+        try (Peer peer = connect(Utils.readContentsAsString(PROMISOR_FILE), "upload-objects")) {
+            peer.out.writeInt(absent.size());
+            for (String UID : absent) {
+                peer.out.write(Pack.toBytes(UID));
+            }
+            peer.out.flush();
+            return receiveObjects(peer.in, new LinkedHashMap<>()) > 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Serves requests for blobs by id over standard input and output.
+     */
+    public static void uploadObjects() {
+        DataInputStream in = stdin();
+        DataOutputStream out = stdout();
+        try {
+            Map<String, Byte> objects = new LinkedHashMap<>();
+            byte[] id = new byte[Pack.ID_LENGTH];
+            for (int count = in.readInt(); count > 0; count--) {
+                in.readFully(id);
+                String UID = Blob.toHex(id);
+                if (Blob.exists(UID) || PROMISOR_FILE.exists()) {
+                    objects.put(UID, Pack.BLOB);
+                }
+            }
+            writeObjects(out, objects);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Serves a fetch of branch ARGS[1] of this repository over standard input
+     and output. ARGS[2], if present, limits the history sent to that many
+     commits deep; ARGS[3], if "0", leaves out blobs.
+     */
+    public static void uploadPack(String[] args) {
+        DataInputStream in = stdin();
+        DataOutputStream out = stdout();
+        File ref = new File(Main.BRANCHES_DIR, args[1]);
+        int depth = args.length > 2 ? Main.parseCount(args[2]) : 0;
+        if (depth < 0) {
+            System.out.println("Incorrect operands.");
+            Main.exit();
+        }
+        try {
+            if (!ref.exists()) {
+                out.writeUTF("");
+                out.flush();
+                return;
+            }
+            send(in, out, Utils.readContentsAsString(ref), depth,
+                    args.length <= 3 || !args[3].equals("0"));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Serves a push to branch ARGS[1] of this repository over standard input
+     and output. The branch only moves if nothing else moved it meanwhile.
+     */
+    public static void receivePack(String[] args) {
+        DataInputStream in = stdin();
+        DataOutputStream out = stdout();
+        File ref = new File(Main.BRANCHES_DIR, args[1]);
+        try {
+            String old = ref.exists() ? Utils.readContentsAsString(ref) : "";
+            out.writeUTF(old);
+            out.flush();
+            if (!in.readBoolean()) {
+                return;
+            }
+            String head = receive(in, out);
+            boolean unmoved = old.equals(ref.exists() ? Utils.readContentsAsString(ref) : "");
+            if (unmoved) {
+                Durable.writeRef(ref, head);
+            }
+            out.writeBoolean(unmoved);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Fetches BRANCH of remote NAME into branch NAME/BRANCH, and returns its
+     head. Takes at most DEPTH commits back from it, unless DEPTH is 0, and
+     blobs only if BLOBS.
+     */
+    private static String fetch(String name, String branch, int depth, boolean blobs) {
+        try (Peer peer = connect(name, "upload-pack", branch, Integer.toString(depth),
+                blobs ? "1" : "0")) {
+            String head = receive(peer.in, peer.out);
+            if (head.isEmpty()) {
+                System.out.println("That remote does not have that branch.");
+                Main.exit();
+            }
+            File ref = new File(new File(Main.BRANCHES_DIR, name), branch);
+            ref.getParentFile().mkdirs();
+            Durable.writeRef(ref, head);
+            return head;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Sends HEAD and the objects OUT's end lacks to reach it, asking about
+     commits over IN. Stops DEPTH commits back, unless DEPTH is 0, and
+     leaves out blobs unless BLOBS. Commits whose parents are not sent or
+     held, and those grafted here, are sent last, to be grafted.
+     */
+    private static void send(DataInputStream in, DataOutputStream out, String head,
+                             int depth, boolean blobs) throws IOException {
+        out.writeUTF(head);
+        CommitGraph graph = CommitGraph.get();
+        List<String> missing = new ArrayList<>();
+        List<String> boundary = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Map<String, Integer> depths = new HashMap<>();
+        Deque<String> frontier = new ArrayDeque<>();
+        frontier.add(head);
+        seen.add(head);
+        depths.put(head, 1);
+        while (!frontier.isEmpty()) {
+            List<String> batch = new ArrayList<>();
+            while (!frontier.isEmpty() && batch.size() < BATCH) {
+                batch.add(frontier.poll());
+            }
+            out.writeInt(batch.size());
+            for (String UID : batch) {
+                out.write(Pack.toBytes(UID));
+            }
+            out.flush();
+            for (String UID : batch) {
+                if (in.readBoolean()) {
+                    boundary.add(UID);
+                } else {
+                    missing.add(UID);
+                    int next = depths.get(UID) + 1;
+                    if (depth > 0 && next > depth) {
+                        continue;
+                    }
+                    for (String parent : graph.getParents(UID)) {
+                        if (graph.contains(parent) && seen.add(parent)) {
+                            frontier.add(parent);
+                            depths.put(parent, next);
+                        }
+                    }
+                }
+            }
+        }
+        out.writeInt(0);
+
+        Set<String> present = new HashSet<>();
+        for (String UID : boundary) {
+            addTree(Main.getCommit(UID).getTree(), present, null, true);
+        }
+        missing.sort((a, b) -> Integer.compare(graph.getGeneration(a), graph.getGeneration(b)));
+        Map<String, Byte> objects = new LinkedHashMap<>();
+        for (String UID : missing) {
+            objects.put(UID, Pack.COMMIT);
+            addTree(Main.getCommit(UID).getTree(), present, objects, blobs);
+        }
+        writeObjects(out, objects);
+        Set<String> sent = new HashSet<>(missing);
+        sent.addAll(boundary);
+        List<String> grafts = new ArrayList<>();
+        for (String UID : missing) {
+            if (CommitGraph.isGrafted(UID)) {
+                grafts.add(UID);
+                continue;
+            }
+            for (String parent : graph.getParents(UID)) {
+                if (!sent.contains(parent)) {
+                    grafts.add(UID);
+                    break;
+                }
+            }
+        }
+        out.writeInt(grafts.size());
+        for (String UID : grafts) {
+            out.write(Pack.toBytes(UID));
+        }
+        out.flush();
+    }
+
+    /**
+     Writes the count of OBJECTS, then each one's id, type, length and
+     stored bytes, blobs whole. Blobs are copied from their stores through
+     one buffer, so no blob is held in memory whatever its size.
+     */
+    private static void writeObjects(DataOutputStream out, Map<String, Byte> objects)
+            throws IOException {
+        byte[] buffer = new byte[Blob.BUFFER_SIZE];
+        out.writeInt(objects.size());
+        for (Map.Entry<String, Byte> object : objects.entrySet()) {
+            String UID = object.getKey();
+            byte type = object.getValue();
+            out.write(Pack.toBytes(UID));
+            out.writeByte(type);
+            if (type != Pack.BLOB) {
+                byte[] bytes = read(UID, type);
+                out.writeLong(bytes.length);
+                out.write(bytes);
+                continue;
+            }
+            long length = Blob.size(UID);
+            out.writeLong(length);
+            try (InputStream in = Blob.open(UID)) {
+                while (length > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                    if (n == -1) {
+                        throw new IOException("blob " + UID + " is truncated");
+                    }
+                    out.write(buffer, 0, n);
+                    length -= n;
+                }
+            }
+        }
+    }
+
+    /**
+     Answers the sender on IN about the commits this repository has, then
+     stores the objects it sends in one pack and adds its commits to the
+     graph, grafting those it says to. Returns the head it sent, or "" if
+     it had none.
+     */
+    private static String receive(DataInputStream in, DataOutputStream out) throws IOException {
+        String head = in.readUTF();
+        if (head.isEmpty()) {
+            return head;
+        }
+        CommitGraph graph = CommitGraph.get();
+        byte[] id = new byte[Pack.ID_LENGTH];
+        for (int n = in.readInt(); n > 0; n = in.readInt()) {
+            for (int i = 0; i < n; i++) {
+                in.readFully(id);
+                out.writeBoolean(graph.contains(Blob.toHex(id)));
+            }
+            out.flush();
+        }
+        Map<String, byte[]> commits = new LinkedHashMap<>();
+        receiveObjects(in, commits);
+        List<String> grafts = new ArrayList<>();
+        for (int n = in.readInt(); n > 0; n--) {
+            in.readFully(id);
+            grafts.add(Blob.toHex(id));
+        }
+        CommitGraph.graft(grafts);
+        for (Map.Entry<String, byte[]> commit : commits.entrySet()) {
+            graph.add(commit.getKey(), Codec.readCommit(new ByteArrayInputStream(commit.getValue())));
+        }
+        return head;
+    }
+
+    /**
+     Reads objects written by writeObjects from IN into one pack, skipping
+     those already stored, and puts the bytes of each commit into COMMITS
+     by id. Blobs too large to pack are written loose instead. Returns the
+     number of objects stored.
+     */
+    private static int receiveObjects(DataInputStream in, Map<String, byte[]> commits)
+            throws IOException {
+        Pack.Builder builder = new Pack.Builder();
+        int loose = 0;
+        byte[] id = new byte[Pack.ID_LENGTH];
+        for (int count = in.readInt(); count > 0; count--) {
+            in.readFully(id);
+            String UID = Blob.toHex(id);
+            byte type = in.readByte();
+            long length = in.readLong();
+            if (has(UID, type)) {
+                in.skipNBytes(length);
+                continue;
+            }
+            InputStream object = new LimitedStream(in, length);
+            if (type == Pack.COMMIT) {
+                byte[] bytes = object.readAllBytes();
+                commits.put(UID, bytes);
+                builder.add(UID, type, new ByteArrayInputStream(bytes));
+            } else if (type == Pack.BLOB && length > Pack.MAX_PACKED_SIZE) {
+                if (!Blob.BLOB_FOLDER.exists()) {
+                    Blob.BLOB_FOLDER.mkdir();
+                }
+                Blob.write(object, UID);
+                loose += 1;
+            } else {
+                builder.add(UID, type, object);
+            }
+        }
+        return builder.finish() + loose;
+    }
+
+    /**
+     Adds tree ID, its buckets and, if BLOBS, their blobs to PRESENT, and to
+     OBJECTS if not null, skipping anything already in PRESENT. Trees are
+     named by their contents, so a tree already present brings everything
+     under it.
+     */
+    private static void addTree(String id, Set<String> present, Map<String, Byte> objects,
+                                boolean blobs) {
+        if (!present.add(id)) {
+            return;
+        }
+        if (objects != null) {
+            objects.put(id, Pack.TREE);
+        }
+        Tree tree = Tree.load(id);
+        if (tree.isLeaf()) {
+            for (String blob : tree.entries().values()) {
+                if (blobs && present.add(blob) && objects != null) {
+                    objects.put(blob, Pack.BLOB);
+                }
+            }
+        } else {
+            for (String child : tree.children()) {
+                addTree(child, present, objects, blobs);
+            }
+        }
+    }
+
+    /**
+     Retrieve the stored bytes of commit or tree UID of TYPE.
+     */
+    private static byte[] read(String UID, byte type) throws IOException {
+        if (type == Pack.TREE) {
+            return Codec.encode(Tree.load(UID));
+        }
+        try (InputStream in = Main.openCommit(UID)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     True if this repository already stores object UID of TYPE.
+     */
+    private static boolean has(String UID, byte type) {
+        if (type == Pack.COMMIT) {
+            return CommitGraph.get().contains(UID);
+        } else if (type == Pack.TREE) {
+            return Tree.exists(UID);
+        }
+        return Blob.exists(UID);
+    }
+
+    /**
+     Starts gitlet with ARGS in the repository of remote NAME.
+     */
+    private static Peer connect(String name, String... args) {
+        File remote = new File(REMOTES_DIR, name);
+        if (!remote.exists()) {
+            System.out.println("A remote with that name does not exist.");
+            Main.exit();
+        }
+        File dir = new File(Utils.readContentsAsString(remote)).getAbsoluteFile();
+        if (!dir.isDirectory()) {
+            System.out.println("Remote directory not found.");
+            Main.exit();
+        }
+        try {
+            List<String> line = new ArrayList<>();
+            line.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            if (Lock.holds(dir)) {
+                line.add("-D" + Lock.HELD_PROPERTY + "=" + dir.getCanonicalPath());
+            }
+            line.add("-cp");
+            line.add(System.getProperty("java.class.path"));
+            line.add("gitlet.Main");
+            line.addAll(Arrays.asList(args));
+            return new Peer(new ProcessBuilder(line).directory(dir.getParentFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Returns the .gitlet folders of the repositories command ARGS may start
+     gitlet in, each mapped to whether gitlet there only reads, so their
+     locks can be taken with this repository's. Commands that may read
+     blobs in a partial clone may fetch them from its origin.
+     */
+    static Map<File, Boolean> peers(String[] args) {
+        Map<File, Boolean> peers = new HashMap<>();
+        if (args.length == 0) {
+            return peers;
+        }
+        if (args.length > 1 && (args[0].equals("fetch") || args[0].equals("pull"))) {
+            addPeer(peers, args[1], true);
+        } else if (args.length > 1 && args[0].equals("push")) {
+            addPeer(peers, args[1], false);
+        }
+        if (PROMISOR_FILE.exists() && !Set.of("log", "global-log", "find", "status")
+                .contains(args[0])) {
+            addPeer(peers, Utils.readContentsAsString(PROMISOR_FILE), true);
+        }
+        return peers;
+    }
+
+    private static void addPeer(Map<File, Boolean> peers, String name, boolean shared) {
+        File remote = new File(REMOTES_DIR, name);
+        if (remote.isFile()) {
+            File dir = new File(Utils.readContentsAsString(remote)).getAbsoluteFile();
+            if (dir.isDirectory()) {
+                peers.merge(dir, shared, Boolean::logicalAnd);
+            }
+        }
+    }
+
+    private static DataInputStream stdin() {
+        return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(FileDescriptor.in), Blob.BUFFER_SIZE));
+    }
+
+    private static DataOutputStream stdout() {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), Blob.BUFFER_SIZE));
+    }
+
+    /**
+     The next LENGTH bytes of a stream, which is left open and positioned
+     just after them once they are read.
+     */
+    private static class LimitedStream extends FilterInputStream {
+        LimitedStream(InputStream in, long length) {
+            super(in);
+            _remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, _remaining));
+            if (n == -1) {
+                throw new EOFException();
+            }
+            _remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, _remaining));
+            _remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), _remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /** Bytes of the object not yet read. */
+        private long _remaining;
+    }
+
+    /**
+     Gitlet running in another repository, and streams to and from it.
+     */
+    private static class Peer implements Closeable {
+        Peer(Process process) {
+            _process = process;
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream(),
+                    Blob.BUFFER_SIZE));
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(),
+                    Blob.BUFFER_SIZE));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            in.close();
+            try {
+                _process.waitFor();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final DataInputStream in;
+        final DataOutputStream out;
+        private final Process _process;
+    }
+}
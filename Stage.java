@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The staging area: files staged for addition and for removal, kept sorted
+ * in a single file that is loaded once per command and replaced atomically
+ * when it changes.
+ * @author victorcruz
+ */
+public class Stage implements Serializable {
+    /** Fixed so saved stages stay readable as methods are added. */
+    private static final long serialVersionUID = -2312802378478197823L;
+    /** File the staging area is saved to. */
+    static final File STAGE_FILE = new File(Main.GITLET_DIR, "stage");
+
+    private Stage() {
+        _added = new TreeMap<>();
+        _removed = new TreeMap<>();
+    }
+
+    /**
+     Returns the staging area for this process, loading it on first use.
+     Staging folders left by older versions are imported.
+     */
+    public static Stage get() {
+        if (_stage == null) {
+            Trace.Phase phase = Trace.phase("stage-load");
+            try {
+                if (STAGE_FILE.exists()) {
+                    _stage = Utils.readObject(STAGE_FILE, Stage.class);
+                } else {
+                    _stage = new Stage();
+                    _stage.importLegacy(Main.StagingArea, _stage._added);
+                    _stage.importLegacy(Main.filesForRemove, _stage._removed);
+                }
+            } finally {
+                phase.end();
+            }
+        }
+        return _stage;
+    }
+
+    /**
+     Drops the staging area loaded by this process, unsaved changes
+     included, so the next get() reads it again.
+     */
+    static void reset() {
+        _stage = null;
+    }
+
+    /**
+     Saves the staging area if this process changed it, by writing a
+     temporary file and renaming it over STAGE_FILE.
+     */
+    public static void saveIfDirty() {
+        if (_stage == null || !_stage._dirty || !Main.GITLET_DIR.exists()) {
+            return;
+        }
+        _stage._dirty = false;
+        Durable.write(STAGE_FILE, Utils.serialize(_stage));
+        deleteLegacy(Main.StagingArea);
+        deleteLegacy(Main.filesForRemove);
+    }
+
+    /**
+     Stages FILENAME for addition as blob UID.
+     */
+    public void add(String fileName, String UID) {
+        _added.put(fileName, UID);
+        _removed.remove(fileName);
+        _dirty = true;
+    }
+
+    /**
+     Stages FILENAME, tracked as blob UID, for removal.
+     */
+    public void remove(String fileName, String UID) {
+        _removed.put(fileName, UID);
+        _added.remove(fileName);
+        _dirty = true;
+    }
+
+    /**
+     Drops FILENAME from the files staged for addition.
+     */
+    public void unstage(String fileName) {
+        if (_added.remove(fileName) != null) {
+            _dirty = true;
+        }
+    }
+
+    /**
+     Drops FILENAME from the files staged for removal.
+     */
+    public void unremove(String fileName) {
+        if (_removed.remove(fileName) != null) {
+            _dirty = true;
+        }
+    }
+
+    /**
+     Retrieve the blob FILENAME is staged as, or null.
+     */
+    public String getStaged(String fileName) {
+        return _added.get(fileName);
+    }
+
+    /**
+     True if FILENAME is staged for addition.
+     */
+    public boolean isStaged(String fileName) {
+        return _added.containsKey(fileName);
+    }
+
+    /**
+     True if FILENAME is staged for removal.
+     */
+    public boolean isRemoved(String fileName) {
+        return _removed.containsKey(fileName);
+    }
+
+    /**
+     Retrieve the files staged for addition, sorted by name.
+     */
+    public SortedMap<String, String> getAdded() {
+        return Collections.unmodifiableSortedMap(_added);
+    }
+
+    /**
+     Retrieve the files staged for removal, sorted by name.
+     */
+    public SortedMap<String, String> getRemoved() {
+        return Collections.unmodifiableSortedMap(_removed);
+    }
+
+    /**
+     True if nothing is staged.
+     */
+    public boolean isEmpty() {
+        return _added.isEmpty() && _removed.isEmpty();
+    }
+
+    /**
+     Unstages everything.
+     */
+    public void clear() {
+        if (!isEmpty()) {
+            _added.clear();
+            _removed.clear();
+            _dirty = true;
+        }
+    }
+
+    private void importLegacy(File folder, TreeMap<String, String> into) {
+        List<String> fileNames = Trace.list(folder);
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                into.put(fileName, Utils.readContentsAsString(new File(folder, fileName)));
+            }
+            _dirty = true;
+        }
+    }
+
+    private static void deleteLegacy(File folder) {
+        List<String> fileNames = Trace.list(folder);
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                new File(folder, fileName).delete();
+            }
+            folder.delete();
+        }
+    }
+
+    /** Staging area loaded by this process. */
+    private static Stage _stage;
+
+    /**
+     Files staged for addition.
+     Key: filename.
+     Value: blob hash.
+     */
+    private TreeMap<String, String> _added;
+
+    /**
+     Files staged for removal.
+     Key: filename.
+     Value: blob hash it was tracked as.
+     */
+    private TreeMap<String, String> _removed;
+
+    /** True if entries changed since loading. */
+    private transient boolean _dirty;
+}
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stat cache of the working directory, like git's index. Remembers the size,
+ * modification time and inode each file had when it was last hashed, so a
+ * file is only rehashed once its stat data changes.
+ * @author victorcruz
+ */
+public class StatCache implements Serializable {
+    /** Fixed so saved caches stay readable as methods are added. */
+    private static final long serialVersionUID = -786206511131226809L;
+    /** File the cache is saved to. */
+    static final File INDEX_FILE = new File(Main.GITLET_DIR, "index");
+
+    /**
+     Stat data and hash of one working file.
+     */
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1400323366264813565L;
+        final long size;
+        final long mtime;
+        final String inode;
+        final String hash;
+
+        Entry(long size, long mtime, String inode, String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hash = hash;
+        }
+    }
+
+    private StatCache() {
+        _entries = new HashMap<>();
+    }
+
+    /**
+     Returns the cache for this process, loading it on first use.
+     */
+    public static synchronized StatCache get() {
+        if (_cache == null) {
+            Trace.Phase phase = Trace.phase("index-load");
+            try {
+                if (INDEX_FILE.exists()) {
+                    try {
+                        _cache = Utils.readObject(INDEX_FILE, StatCache.class);
+                    } catch (IllegalArgumentException excp) {
+                        _cache = new StatCache();
+                    }
+                } else {
+                    _cache = new StatCache();
+                }
+            } finally {
+                phase.end();
+            }
+        }
+        return _cache;
+    }
+
+    /**
+     Drops the cache loaded by this process, so the next get() reads it again.
+     */
+    static synchronized void reset() {
+        _cache = null;
+    }
+
+    /**
+     Saves the cache if this process loaded and changed it.
+     */
+    public static void saveIfDirty() {
+        if (_cache != null && _cache._dirty && Main.GITLET_DIR.exists()) {
+            _cache._dirty = false;
+            _cache._written = System.currentTimeMillis();
+            Durable.write(INDEX_FILE, Utils.serialize(_cache));
+        }
+    }
+
+    /**
+     Returns the blob hash of working file FILE, rehashing it only if its
+     stat data differs from the cached entry. Safe to call from several
+     threads; hashing itself happens outside the lock.
+     */
+    public String hash(File file) {
+        BasicFileAttributes attrs = stat(file);
+        String cached = lookup(file, attrs);
+        if (cached != null) {
+            return cached;
+        }
+        String hash = Blob.hash(file);
+        put(file, attrs, hash);
+        return hash;
+    }
+
+    /**
+     Records that FILE was just written with the contents of blob HASH.
+     */
+    public void record(File file, String hash) {
+        put(file, stat(file), hash);
+    }
+
+    private synchronized String lookup(File file, BasicFileAttributes attrs) {
+        Entry entry = _entries.get(file.getName());
+        if (entry != null && matches(entry, attrs)) {
+            return entry.hash;
+        }
+        return null;
+    }
+
+    private synchronized void put(File file, BasicFileAttributes attrs, String hash) {
+        _entries.put(file.getName(), new Entry(attrs.size(),
+                attrs.lastModifiedTime().to(TimeUnit.MILLISECONDS), inode(attrs), hash));
+        _dirty = true;
+    }
+
+    /**
+     True if ENTRY still describes a file with ATTRS. Files modified at or
+     after the cache was last written are "racy": a later change within the
+     same clock tick would leave the mtime unchanged, so they are rehashed.
+     */
+    private boolean matches(Entry entry, BasicFileAttributes attrs) {
+        long mtime = attrs.lastModifiedTime().to(TimeUnit.MILLISECONDS);
+        return entry.size == attrs.size() && entry.mtime == mtime
+                && entry.inode.equals(inode(attrs)) && mtime < _written;
+    }
+
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static String inode(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    /** Cache loaded by this process. */
+    private static StatCache _cache;
+
+    /**
+     Key: filename.
+     Value: its stat data and hash.
+     */
+    private HashMap<String, Entry> _entries;
+
+    /** Time the cache was last saved, in epoch milliseconds. */
+    private long _written;
+
+    /** True if entries changed since loading. */
+    private transient boolean _dirty;
+}
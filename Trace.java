@@ -0,0 +1,330 @@
+package gitlet;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Instrumentation of commands: time spent in named phases and counts of the
+ * I/O done. Counters and phase totals accumulate for the life of the
+ * process; each command reports its share of them. With --trace a command
+ * prints its report as one line of JSON to standard error. Phases are also
+ * JFR events, and a daemon publishes the totals as the MXBean
+ * gitlet:type=Trace.
+ * @author victorcruz
+ */
+public class Trace {
+    /** Flag that turns tracing on for one command. */
+    static final String FLAG = "--trace";
+
+    /**
+     Things counted.
+     */
+    enum Counter {
+        OBJECTS_READ, FILES_WRITTEN, BYTES_WRITTEN, BYTES_HASHED, LISTINGS, FSYNCS;
+
+        /**
+         Adds N to this counter.
+         */
+        void add(long n) {
+            _total.add(n);
+        }
+
+        long total() {
+            return _total.sum();
+        }
+
+        private final LongAdder _total = new LongAdder();
+    }
+
+    /**
+     A phase in progress, ended by end(), which callers run in a finally
+     block.
+     */
+    static class Phase {
+        private Phase(String name) {
+            _name = name;
+            _event = new PhaseEvent();
+            _event.phase = name;
+            _event.begin();
+            _start = System.nanoTime();
+        }
+
+        void end() {
+            long nanos = System.nanoTime() - _start;
+            _event.commit();
+            record(_command, _name, nanos);
+            record(_totals, _name, nanos);
+        }
+
+        private final String _name;
+        private final PhaseEvent _event;
+        private final long _start;
+    }
+
+    /**
+     JFR event for one phase of a command.
+     */
+    @Name("gitlet.Phase")
+    @Label("Gitlet Phase")
+    @Category("Gitlet")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    /**
+     Totals published over JMX by a long-running process.
+     */
+    public interface StatsMXBean {
+        long getCommands();
+        long getObjectsRead();
+        long getFilesWritten();
+        long getBytesWritten();
+        long getBytesHashed();
+        long getListings();
+        long getFsyncs();
+        long getCacheHits();
+        long getCacheMisses();
+        long getCacheEvictions();
+        long getCacheBytes();
+        /** Milliseconds spent in each phase. */
+        Map<String, Long> getPhaseMillis();
+    }
+
+    /**
+     Starts phase NAME; end the result to end it.
+     */
+    static Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     Retrieve the names of the files in DIR, as Utils.plainFilenamesIn
+     does, counting the listing.
+     */
+    static List<String> list(File dir) {
+        Counter.LISTINGS.add(1);
+        return Utils.plainFilenamesIn(dir);
+    }
+
+    /**
+     Strips the trace flag from the front of ARGS, turning tracing on for
+     this command if it was there, and starts timing command ARGS[0].
+     Returns the remaining arguments.
+     */
+    static String[] begin(String[] args) {
+        _enabled = args.length > 0 && args[0].equals(FLAG);
+        if (_enabled) {
+            String[] rest = new String[args.length - 1];
+            System.arraycopy(args, 1, rest, 0, rest.length);
+            args = rest;
+        }
+        _command.clear();
+        for (Counter counter : Counter.values()) {
+            _start[counter.ordinal()] = counter.total();
+        }
+        _cacheStart = new long[] {ObjectCache.hits(), ObjectCache.misses(),
+            ObjectCache.evictions()};
+        _name = args.length > 0 ? args[0] : "";
+        _commandPhase = phase("command");
+        _commands.increment();
+        return args;
+    }
+
+    /**
+     Ends the command begun last, printing its report if it was traced.
+     */
+    static void end() {
+        if (_commandPhase == null) {
+            return;
+        }
+        _commandPhase.end();
+        _commandPhase = null;
+        if (_enabled) {
+            System.err.println(report());
+            System.err.flush();
+        }
+    }
+
+    /**
+     Publishes the totals as an MXBean, for a process that outlives its
+     commands.
+     */
+    static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Stats(),
+                    new ObjectName("gitlet:type=Trace"));
+        } catch (JMException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     Returns this command's report as a line of JSON.
+     */
+    private static String report() {
+        StringBuilder json = new StringBuilder("{\"command\":");
+        quote(json, _name);
+        long[] command = _command.get("command");
+        json.append(",\"ms\":").append(millis(command == null ? 0 : command[1]));
+        json.append(",\"phases\":{");
+        String separator = "";
+        for (Map.Entry<String, long[]> entry : new TreeMap<>(_command).entrySet()) {
+            if (entry.getKey().equals("command")) {
+                continue;
+            }
+            json.append(separator);
+            quote(json, entry.getKey());
+            json.append(":{\"count\":").append(entry.getValue()[0])
+                    .append(",\"ms\":").append(millis(entry.getValue()[1])).append('}');
+            separator = ",";
+        }
+        json.append("},\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            json.append('"').append(counter.name().toLowerCase()).append("\":")
+                    .append(counter.total() - _start[counter.ordinal()]).append(',');
+        }
+        json.append("\"cache_hits\":").append(ObjectCache.hits() - _cacheStart[0])
+                .append(",\"cache_misses\":").append(ObjectCache.misses() - _cacheStart[1])
+                .append(",\"cache_evictions\":").append(ObjectCache.evictions() - _cacheStart[2])
+                .append("}}");
+        return json.toString();
+    }
+
+    private static void record(Map<String, long[]> phases, String name, long nanos) {
+        phases.compute(name, (key, totals) -> {
+            if (totals == null) {
+                totals = new long[2];
+            }
+            totals[0] += 1;
+            totals[1] += nanos;
+            return totals;
+        });
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static void quote(StringBuilder json, String s) {
+        json.append('"');
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static class Stats implements StatsMXBean {
+        @Override
+        public long getCommands() {
+            return _commands.sum();
+        }
+
+        @Override
+        public long getObjectsRead() {
+            return Counter.OBJECTS_READ.total();
+        }
+
+        @Override
+        public long getFilesWritten() {
+            return Counter.FILES_WRITTEN.total();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return Counter.BYTES_WRITTEN.total();
+        }
+
+        @Override
+        public long getBytesHashed() {
+            return Counter.BYTES_HASHED.total();
+        }
+
+        @Override
+        public long getListings() {
+            return Counter.LISTINGS.total();
+        }
+
+        @Override
+        public long getFsyncs() {
+            return Counter.FSYNCS.total();
+        }
+
+        @Override
+        public long getCacheHits() {
+            return ObjectCache.hits();
+        }
+
+        @Override
+        public long getCacheMisses() {
+            return ObjectCache.misses();
+        }
+
+        @Override
+        public long getCacheEvictions() {
+            return ObjectCache.evictions();
+        }
+
+        @Override
+        public long getCacheBytes() {
+            return ObjectCache.bytes();
+        }
+
+        @Override
+        public Map<String, Long> getPhaseMillis() {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<String, long[]> entry : _totals.entrySet()) {
+                result.put(entry.getKey(), entry.getValue()[1] / 1_000_000);
+            }
+            return result;
+        }
+    }
+
+    /** True if the current command is traced. */
+    private static boolean _enabled;
+
+    /** Name of the current command. */
+    private static String _name = "";
+
+    /** Phase timing the whole current command. */
+    private static Phase _commandPhase;
+
+    /** Counter totals when the current command began. */
+    private static final long[] _start = new long[Counter.values().length];
+
+    /** Object cache hits, misses and evictions when the current command began. */
+    private static long[] _cacheStart = new long[3];
+
+    /** Commands begun by this process. */
+    private static final LongAdder _commands = new LongAdder();
+
+    /**
+     Key: phase name.
+     Value: times entered and nanoseconds spent, in the current command.
+     */
+    private static final Map<String, long[]> _command = new ConcurrentHashMap<>();
+
+    /**
+     Key: phase name.
+     Value: times entered and nanoseconds spent, in this process.
+     */
+    private static final Map<String, long[]> _totals = new ConcurrentHashMap<>();
+}
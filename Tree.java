@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Content-addressed tree objects holding the filename to blob hash map of a
+ * commit. Small trees are a single leaf. Larger ones are a root whose entries
+ * point at leaf buckets, one per two-hex-digit prefix of the filename's hash,
+ * so a commit changing one file writes one new bucket and a new root and
+ * shares every other bucket with its parent.
+ * @author victorcruz
+ */
+public class Tree implements Serializable {
+    /** Matches trees serialized before the binary format. */
+    private static final long serialVersionUID = 8811120255276207735L;
+    /** Folder trees live in. */
+    static final File TREE_FOLDER = new File(Main.GITLET_DIR, "trees");
+
+    /**
+     Most files a single leaf holds. The same limit decides both splitting
+     and collapsing, so a tree's shape, and so its id, depends only on the
+     files in it.
+     */
+    static final int FLAT_LIMIT = 256;
+
+    /** Estimated bytes of one cached tree entry. */
+    private static final long ENTRY_WEIGHT = 160;
+
+    Tree(boolean leaf, TreeMap<String, String> entries, int size) {
+        _leaf = leaf;
+        _entries = entries;
+        _size = size;
+    }
+
+    /**
+     Writes a tree holding FILES and returns its id.
+     */
+    public static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /**
+     Writes the tree BASE with CHANGES applied and returns its id. CHANGES
+     maps filenames to their new blob hash, or to null for removed files.
+     BASE may be null for the empty tree. Only buckets that change are
+     rewritten.
+     */
+    public static String update(String base, Map<String, String> changes) {
+        Tree root = base == null ? new Tree(true, new TreeMap<>(), 0) : load(base);
+        if (root._leaf) {
+            TreeMap<String, String> files = new TreeMap<>(root._entries);
+            apply(files, changes);
+            return files.size() <= FLAT_LIMIT ? leaf(files) : bucketed(files);
+        }
+        TreeMap<String, TreeMap<String, String>> byBucket = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            byBucket.computeIfAbsent(bucketOf(change.getKey()), k -> new TreeMap<>())
+                    .put(change.getKey(), change.getValue());
+        }
+        TreeMap<String, String> buckets = new TreeMap<>(root._entries);
+        int size = root._size;
+        for (Map.Entry<String, TreeMap<String, String>> bucket : byBucket.entrySet()) {
+            String bucketId = buckets.get(bucket.getKey());
+            TreeMap<String, String> files = bucketId == null
+                    ? new TreeMap<>() : new TreeMap<>(load(bucketId)._entries);
+            size -= files.size();
+            apply(files, bucket.getValue());
+            size += files.size();
+            if (files.isEmpty()) {
+                buckets.remove(bucket.getKey());
+            } else {
+                buckets.put(bucket.getKey(), leaf(files));
+            }
+        }
+        Tree result = new Tree(false, buckets, size);
+        if (size <= FLAT_LIMIT) {
+            return leaf(new TreeMap<>(result.files()));
+        }
+        return result.save();
+    }
+
+    /**
+     Retrieve every file in tree ID, sorted by name.
+     */
+    public static LinkedHashMap<String, String> read(String id) {
+        return new LinkedHashMap<>(load(id).files());
+    }
+
+    /**
+     Retrieve the blob hash of FILENAME in tree ID, or null. Loads at most
+     one bucket.
+     */
+    public static String lookup(String id, String fileName) {
+        Tree root = load(id);
+        if (root._leaf) {
+            return root._entries.get(fileName);
+        }
+        String bucketId = root._entries.get(bucketOf(fileName));
+        return bucketId == null ? null : load(bucketId)._entries.get(fileName);
+    }
+
+    /**
+     Retrieve the files that differ between trees FROM and TO.
+     Key: filename.
+     Value: its blob hash in FROM and in TO, either null if absent.
+     Buckets with the same id are skipped without being read.
+     */
+    public static TreeMap<String, String[]> diff(String from, String to) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        if (from.equals(to)) {
+            return result;
+        }
+        Tree a = load(from);
+        Tree b = load(to);
+        if (!a._leaf && !b._leaf) {
+            TreeSet<String> keys = new TreeSet<>(a._entries.keySet());
+            keys.addAll(b._entries.keySet());
+            for (String key : keys) {
+                String aBucket = a._entries.get(key);
+                String bBucket = b._entries.get(key);
+                if (aBucket == null || !aBucket.equals(bBucket)) {
+                    diffFiles(aBucket == null ? new TreeMap<>() : load(aBucket)._entries,
+                            bBucket == null ? new TreeMap<>() : load(bBucket)._entries, result);
+                }
+            }
+        } else {
+            diffFiles(a.files(), b.files(), result);
+        }
+        return result;
+    }
+
+    private static void diffFiles(Map<String, String> a, Map<String, String> b,
+                                  TreeMap<String, String[]> result) {
+        for (Map.Entry<String, String> entry : a.entrySet()) {
+            String other = b.get(entry.getKey());
+            if (!entry.getValue().equals(other)) {
+                result.put(entry.getKey(), new String[] {entry.getValue(), other});
+            }
+        }
+        for (Map.Entry<String, String> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) {
+                result.put(entry.getKey(), new String[] {null, entry.getValue()});
+            }
+        }
+    }
+
+    /**
+     True if tree ID is stored.
+     */
+    public static boolean exists(String id) {
+        return ObjectCache.get(ObjectCache.TREE, id) != null
+                || new File(TREE_FOLDER, id).exists() || Pack.contains(id);
+    }
+
+    /**
+     Loads tree ID, through the object cache.
+     */
+    static Tree load(String id) {
+        Tree tree = ObjectCache.get(ObjectCache.TREE, id);
+        if (tree == null) {
+            File file = new File(TREE_FOLDER, id);
+            Trace.Counter.OBJECTS_READ.add(1);
+            try (InputStream in = file.exists()
+                    ? Files.newInputStream(file.toPath()) : Pack.open(id)) {
+                tree = Codec.readTree(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            tree.cache(id);
+        }
+        return tree;
+    }
+
+    /**
+     True if entries map filenames to blobs.
+     */
+    boolean isLeaf() {
+        return _leaf;
+    }
+
+    /**
+     Retrieve this tree's entries.
+     */
+    TreeMap<String, String> entries() {
+        return _entries;
+    }
+
+    /**
+     Number of files under this tree.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     Retrieve the ids of the buckets under this tree; empty for a leaf.
+     */
+    Iterable<String> children() {
+        return _leaf ? new TreeSet<>() : _entries.values();
+    }
+
+    private TreeMap<String, String> files() {
+        if (_leaf) {
+            return _entries;
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String bucketId : _entries.values()) {
+            result.putAll(load(bucketId)._entries);
+        }
+        return result;
+    }
+
+    private static void apply(TreeMap<String, String> files, Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                files.remove(change.getKey());
+            } else {
+                files.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private static String leaf(TreeMap<String, String> files) {
+        return new Tree(true, files, files.size()).save();
+    }
+
+    private static String bucketed(TreeMap<String, String> files) {
+        TreeMap<String, TreeMap<String, String>> byBucket = new TreeMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            byBucket.computeIfAbsent(bucketOf(file.getKey()), k -> new TreeMap<>())
+                    .put(file.getKey(), file.getValue());
+        }
+        TreeMap<String, String> buckets = new TreeMap<>();
+        for (Map.Entry<String, TreeMap<String, String>> bucket : byBucket.entrySet()) {
+            buckets.put(bucket.getKey(), leaf(bucket.getValue()));
+        }
+        return new Tree(false, buckets, files.size()).save();
+    }
+
+    private static String bucketOf(String fileName) {
+        return Utils.sha1(fileName).substring(0, 2);
+    }
+
+    /**
+     Writes this tree unless it is already stored, and returns its id.
+     */
+    private String save() {
+        String id = hash();
+        if (!exists(id)) {
+            if (!TREE_FOLDER.exists()) {
+                TREE_FOLDER.mkdir();
+            }
+            Durable.writeIfAbsent(new File(TREE_FOLDER, id), Codec.encode(this));
+        }
+        cache(id);
+        return id;
+    }
+
+    private void cache(String id) {
+        ObjectCache.put(ObjectCache.TREE, id, this, ENTRY_WEIGHT * (_entries.size() + 1));
+    }
+
+    private String hash() {
+        MessageDigest md = Blob.newDigest();
+        Commit.hashField(md, _leaf ? "leaf" : "tree");
+        Commit.hashField(md, Integer.toString(_size));
+        for (Map.Entry<String, String> entry : _entries.entrySet()) {
+            Commit.hashField(md, entry.getKey());
+            Commit.hashField(md, entry.getValue());
+        }
+        return Blob.toHex(md.digest());
+    }
+
+    /** True if entries map filenames to blobs, false if they map buckets to trees. */
+    private final boolean _leaf;
+    /**
+     Key: filename, or bucket prefix.
+     Value: blob hash, or bucket tree id.
+     */
+    private final TreeMap<String, String> _entries;
+    /** Number of files under this tree. */
+    private final int _size;
+}
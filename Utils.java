@@ -0,0 +1,69 @@
+package gitlet;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.*;
+import java.util.*;
+class Utils {
+    static final int UID_LENGTH = 40;
+    static String sha1(Object... vals) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (Object val : vals) {
+                if (val instanceof byte[]) md.update((byte[]) val);
+                else if (val instanceof String) md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                else throw new IllegalArgumentException("improper type to sha1");
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) result.format("%02x", b);
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) { throw new IllegalArgumentException("System does not support SHA-1"); }
+    }
+    static String sha1(List<Object> vals) { return sha1(vals.toArray(new Object[vals.size()])); }
+    static boolean restrictedDelete(File file) { return file.delete(); }
+    static boolean restrictedDelete(String file) { return restrictedDelete(new File(file)); }
+    static byte[] readContents(File file) {
+        try { return Files.readAllBytes(file.toPath()); } catch (IOException excp) { throw new IllegalArgumentException(excp.getMessage()); }
+    }
+    static String readContentsAsString(File file) { return new String(readContents(file), StandardCharsets.UTF_8); }
+    static void writeContents(File file, Object... contents) {
+        try {
+            BufferedOutputStream str = new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            for (Object obj : contents) {
+                if (obj instanceof byte[]) str.write((byte[]) obj);
+                else str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+            }
+            str.close();
+        } catch (IOException | ClassCastException excp) { throw new IllegalArgumentException(excp.getMessage()); }
+    }
+    static <T extends Serializable> T readObject(File file, Class<T> expectedClass) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) { throw new IllegalArgumentException(excp.getMessage()); }
+    }
+    static void writeObject(File file, Serializable obj) { writeContents(file, serialize(obj)); }
+    private static final FilenameFilter PLAIN_FILES = (dir, name) -> new File(dir, name).isFile();
+    static List<String> plainFilenamesIn(File dir) {
+        String[] files = dir.list(PLAIN_FILES);
+        if (files == null) return null;
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+    static List<String> plainFilenamesIn(String dir) { return plainFilenamesIn(new File(dir)); }
+    static File join(String first, String... others) { return java.nio.file.Paths.get(first, others).toFile(); }
+    static File join(File first, String... others) { return java.nio.file.Paths.get(first.getPath(), others).toFile(); }
+    static byte[] serialize(Serializable obj) {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ObjectOutputStream objectStream = new ObjectOutputStream(stream);
+            objectStream.writeObject(obj);
+            objectStream.close();
+            return stream.toByteArray();
+        } catch (IOException excp) { throw new IllegalArgumentException("Internal error serializing commit."); }
+    }
+    static GitletException error(String msg, Object... args) { return new GitletException(String.format(msg, args)); }
+    static void message(String msg, Object... args) { System.out.printf(msg, args); System.out.println(); }
+}
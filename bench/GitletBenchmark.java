@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of the core commands, run against a repository built by
+ * Bench.generate. Gitlet works in the directory it is started in, so the
+ * benchmarks run in the working directory, which must be empty or hold
+ * only a repository an earlier run left there. Each trial clears it and
+ * copies in a pristine repository for its parameters, generated once and
+ * kept under java.io.tmpdir, so every trial starts from the same history
+ * whatever earlier benchmarks committed. Commands run in the forked JVM
+ * through Daemon.run, warm as the daemon keeps them, with their output
+ * sent to a Blackhole; statusColdJvm runs a fresh JVM per command, as a
+ * user typing commands sees them.
+ *
+ * Usage: mvn -Pbench package
+ *        mkdir /tmp/gitlet-bench; cd /tmp/gitlet-bench
+ *        java -jar PROJECT/target/benchmarks.jar [-p commits=N -p files=N ...]
+ * @author victorcruz
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class GitletBenchmark {
+    /**
+     The generated repository and the edits made to it.
+     */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        @Param("1000")
+        public int commits;
+        @Param("1000")
+        public int files;
+        @Param("4")
+        public int branches;
+        @Param("40")
+        public int lines;
+        @Param("1")
+        public long seed;
+
+        Bench bench;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            clear(Main.CWD.getCanonicalFile());
+            File pristine = new File(System.getProperty("java.io.tmpdir"), String.format(
+                    "gitlet-bench-%d-%d-%d-%d-%d", commits, files, branches, lines, seed));
+            bench = new Bench(seed);
+            if (pristine.isDirectory()) {
+                copy(pristine.toPath(), Main.CWD.toPath());
+                bench.open();
+            } else {
+                bench.generate(commits, files, branches, lines, 0);
+                Files.createFile(MARKER.toPath());
+                Path temp = Files.createTempDirectory(pristine.getParentFile().toPath(),
+                        pristine.getName() + ".");
+                copy(Main.CWD.toPath(), temp);
+                try {
+                    Files.move(temp, pristine.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException excp) {
+                    delete(temp);
+                }
+            }
+        }
+    }
+
+    /** Marks a repository made by these benchmarks, which they may clear. */
+    static final File MARKER = new File(Main.GITLET_DIR, "bench");
+
+    /**
+     A file edited but not yet staged.
+     */
+    @State(Scope.Benchmark)
+    public static class Edited {
+        String name;
+
+        @Setup(Level.Invocation)
+        public void setup(Repo repo) {
+            name = repo.bench.edit(1)[0];
+        }
+    }
+
+    /**
+     A file edited and staged.
+     */
+    @State(Scope.Benchmark)
+    public static class Staged {
+        @Setup(Level.Invocation)
+        public void setup(Repo repo) {
+            Bench.add(repo.bench.edit(1));
+        }
+    }
+
+    /**
+     A branch whose head differs from master by a tenth of the files.
+     */
+    @State(Scope.Benchmark)
+    public static class Diverged {
+        static final String BRANCH = "bench-checkout";
+
+        @Setup(Level.Trial)
+        public void setup(Repo repo) {
+            Bench.gitlet("branch", BRANCH);
+            Bench.gitlet("checkout", BRANCH);
+            Bench.add(repo.bench.edit(Math.max(1, repo.files / 10)));
+            Bench.gitlet("commit", "bench checkout");
+            Bench.gitlet("checkout", "master");
+        }
+    }
+
+    /**
+     A new branch and master, each one commit past their split point.
+     */
+    @State(Scope.Benchmark)
+    public static class Forked {
+        String branch;
+
+        @Setup(Level.Invocation)
+        public void setup(Repo repo) {
+            branch = "bench-merge-" + System.nanoTime();
+            Bench.gitlet("branch", branch);
+            Bench.add(repo.bench.edit(1));
+            Bench.gitlet("commit", "bench merge head");
+            Bench.gitlet("checkout", branch);
+            Bench.add(repo.bench.edit(1));
+            Bench.gitlet("commit", "bench merge given");
+            Bench.gitlet("checkout", "master");
+        }
+    }
+
+    @Benchmark
+    public void status(Repo repo, Blackhole sink) {
+        gitlet(sink, "status");
+    }
+
+    @Benchmark
+    public void log(Repo repo, Blackhole sink) {
+        gitlet(sink, "log");
+    }
+
+    @Benchmark
+    public String splitPoint(Repo repo) {
+        return Main.getSplitPoint(Bench.otherBranch());
+    }
+
+    @Benchmark
+    public void add(Edited edited, Blackhole sink) {
+        gitlet(sink, "add", edited.name);
+    }
+
+    @Benchmark
+    public void commit(Staged staged, Blackhole sink) {
+        gitlet(sink, "commit", "bench commit");
+    }
+
+    @Benchmark
+    public void checkoutAndBack(Diverged diverged, Blackhole sink) {
+        gitlet(sink, "checkout", Diverged.BRANCH);
+        gitlet(sink, "checkout", "master");
+    }
+
+    @Benchmark
+    public void merge(Forked forked, Blackhole sink) {
+        gitlet(sink, "merge", forked.branch);
+    }
+
+    @Benchmark
+    @Measurement(iterations = 5)
+    public int statusColdJvm(Repo repo) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main", "status")
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        return process.waitFor();
+    }
+
+    /**
+     Empties DIR, which must be empty already or hold a repository made by
+     these benchmarks, so they never write over a source checkout.
+     */
+    private static void clear(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null || children.length == 0) {
+            return;
+        }
+        if (!MARKER.exists()) {
+            throw new IllegalStateException("Run the benchmarks from an empty directory, not "
+                    + dir + ".");
+        }
+        for (File child : children) {
+            delete(child.toPath());
+        }
+    }
+
+    /**
+     Copies the files and folders under FROM into TO.
+     */
+    private static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path target = to.resolve(from.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else if (!path.getFileName().toString().equals("lock")) {
+                    Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /**
+     Deletes PATH and everything under it.
+     */
+    private static void delete(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            List<Path> all = paths.collect(Collectors.toList());
+            Collections.reverse(all);
+            for (Path each : all) {
+                Files.delete(each);
+            }
+        }
+    }
+
+    /**
+     Runs gitlet with ARGS, consuming its output in SINK.
+     */
+    private static void gitlet(Blackhole sink, String... args) {
+        Bench.gitlet(new OutputStream() {
+            @Override
+            public void write(int b) {
+                sink.consume(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                sink.consume(bytes);
+            }
+        }, args);
+    }
+}
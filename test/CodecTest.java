@@ -0,0 +1,117 @@
+package gitlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.TreeMap;
+import org.junit.Test;
+
+/** Round trips of commits and trees through the binary format.
+ *  @author victorcruz
+ */
+public class CodecTest {
+    private static final String ID = "1111111111111111111111111111111111111111";
+    private static final String PARENT = "2222222222222222222222222222222222222222";
+    private static final String OTHER = "3333333333333333333333333333333333333333";
+    private static final String TREE = "4444444444444444444444444444444444444444";
+
+    @Test
+    public void initialCommitRoundTrips() throws IOException {
+        ZonedDateTime epoch = LocalDateTime.of(1969, 12, 31, 16, 0, 0)
+                .atZone(ZoneId.of("America/Los_Angeles"));
+        Commit commit = roundTrip(commit("initial commit", epoch));
+        assertEquals(ID, commit.getId());
+        assertEquals("initial commit", commit.getMessage());
+        assertEquals(epoch, commit.getTimeStamp());
+        assertNull(commit.getParent());
+        assertNull(commit.getSecondParent());
+        assertEquals(TREE, commit.getTree());
+    }
+
+    @Test
+    public void mergeCommitRoundTrips() throws IOException {
+        ZonedDateTime now = ZonedDateTime.of(2024, 2, 29, 23, 59, 58, 123_000_000,
+                ZoneId.of("+05:30"));
+        Commit commit = roundTrip(commit("Merged b into master. é中\n", now,
+                PARENT, OTHER));
+        assertEquals("Merged b into master. é中\n", commit.getMessage());
+        assertEquals(now, commit.getTimeStamp());
+        assertEquals(PARENT, commit.getParent());
+        assertEquals(OTHER, commit.getSecondParent());
+    }
+
+    @Test
+    public void headerStopsBeforeTheTree() throws IOException {
+        ZonedDateTime now = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+        byte[] encoded = Codec.encode(commit("m", now, PARENT));
+        ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+        Codec.Header header = Codec.readHeader(in);
+        assertEquals(ID, header.id);
+        assertEquals("m", header.message);
+        assertArrayEquals(new String[] {PARENT}, header.parents);
+    }
+
+    @Test
+    public void commitsReencodeIdentically() throws IOException {
+        ZonedDateTime now = ZonedDateTime.of(2021, 6, 1, 12, 0, 0, 0, ZoneId.of("Europe/Berlin"));
+        byte[] encoded = Codec.encode(commit("m", now, PARENT));
+        assertArrayEquals(encoded, Codec.encode(Codec.readCommit(
+                new ByteArrayInputStream(encoded))));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNewerVersions() throws IOException {
+        ZonedDateTime now = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+        byte[] encoded = Codec.encode(commit("m", now));
+        encoded[1] = (byte) (Codec.VERSION + 1);
+        Codec.readCommit(new ByteArrayInputStream(encoded));
+    }
+
+    @Test
+    public void leafTreeRoundTrips() throws IOException {
+        TreeMap<String, String> entries = new TreeMap<>();
+        entries.put("a.txt", PARENT);
+        entries.put("über.txt", OTHER);
+        Tree tree = roundTrip(new Tree(true, entries, 2));
+        assertTrue(tree.isLeaf());
+        assertEquals(2, tree.size());
+        assertEquals(entries, tree.entries());
+    }
+
+    @Test
+    public void bucketedTreeRoundTrips() throws IOException {
+        TreeMap<String, String> buckets = new TreeMap<>();
+        buckets.put("0a", PARENT);
+        buckets.put("ff", OTHER);
+        Tree tree = roundTrip(new Tree(false, buckets, 300));
+        assertFalse(tree.isLeaf());
+        assertEquals(300, tree.size());
+        assertEquals(buckets, tree.entries());
+    }
+
+    @Test
+    public void emptyTreeRoundTrips() throws IOException {
+        Tree tree = roundTrip(new Tree(true, new TreeMap<>(), 0));
+        assertTrue(tree.entries().isEmpty());
+    }
+
+    private static Commit commit(String message, ZonedDateTime time, String... parents) {
+        return new Commit(new Codec.Header(ID, message, time, parents), TREE);
+    }
+
+    private static Commit roundTrip(Commit commit) throws IOException {
+        return Codec.readCommit(new ByteArrayInputStream(Codec.encode(commit)));
+    }
+
+    private static Tree roundTrip(Tree tree) throws IOException {
+        return Codec.readTree(new ByteArrayInputStream(Codec.encode(tree)));
+    }
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests of delta encoding and application.
+ *  @author victorcruz
+ */
+public class DeltaTest {
+    private static final String BASE_ID = "0123456789abcdef0123456789abcdef01234567";
+
+    @Test
+    public void recordsBaseAndDepth() {
+        byte[] delta = Delta.encode(new byte[0], new byte[0], BASE_ID, 7);
+        assertEquals(BASE_ID, Delta.baseOf(delta));
+        assertEquals(7, Delta.depthOf(delta));
+    }
+
+    @Test
+    public void rebuildsEmptyAndTinyTargets() {
+        assertRoundTrip(new byte[0], new byte[0]);
+        assertRoundTrip("some base text".getBytes(StandardCharsets.UTF_8), new byte[0]);
+        assertRoundTrip(new byte[0], "abc".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void smallEditCopiesMostOfTheBase() {
+        byte[] base = text(4000, new Random(3));
+        byte[] target = base.clone();
+        target[2000] ^= 1;
+        byte[] delta = assertRoundTrip(base, target);
+        assertTrue(delta.length < 200);
+    }
+
+    @Test
+    public void rebuildsRandomEdits() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 2000; trial++) {
+            byte[] base = text(random.nextInt(600), random);
+            byte[] target = base;
+            int edits = random.nextInt(5);
+            for (int i = 0; i < edits; i++) {
+                target = edit(target, random);
+            }
+            assertRoundTrip(base, target);
+        }
+    }
+
+    @Test
+    public void copiesOnlyWhatTheTargetHolds() {
+        byte[] base = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+        byte[] target = Arrays.copyOf(base, 20);
+        assertRoundTrip(base, target);
+    }
+
+    private static byte[] assertRoundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.encode(base, target, BASE_ID, 1);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta;
+    }
+
+    /** Returns TARGET with a random range replaced by random bytes. */
+    private static byte[] edit(byte[] target, Random random) {
+        int from = random.nextInt(target.length + 1);
+        int to = from + random.nextInt(target.length - from + 1);
+        byte[] inserted = text(random.nextInt(40), random);
+        byte[] result = new byte[target.length - (to - from) + inserted.length];
+        System.arraycopy(target, 0, result, 0, from);
+        System.arraycopy(inserted, 0, result, from, inserted.length);
+        System.arraycopy(target, to, result, from + inserted.length, target.length - to);
+        return result;
+    }
+
+    /** Returns LENGTH bytes of text from a small alphabet, so blocks repeat. */
+    private static byte[] text(int length, Random random) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) "abcd \n".charAt(random.nextInt(6));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+package gitlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests of the line diff engine.
+ *  @author victorcruz
+ */
+public class DiffTest {
+    @Test
+    public void identicalFilesHaveNoHunks() {
+        assertTrue(Diff.diff(new int[] {1, 2, 3}, new int[] {1, 2, 3}).isEmpty());
+    }
+
+    @Test
+    public void findsOneReplacement() {
+        List<Diff.Hunk> hunks = Diff.diff(new int[] {1, 2, 3}, new int[] {1, 9, 3});
+        assertEquals(1, hunks.size());
+        assertHunk(1, 2, 1, 2, hunks.get(0));
+    }
+
+    @Test
+    public void deletionInARunLandsAtItsEnd() {
+        List<Diff.Hunk> hunks = Diff.diff(new int[] {0, 2, 2, 2, 2, 5},
+                new int[] {0, 2, 2, 2, 5});
+        assertEquals(1, hunks.size());
+        assertHunk(4, 5, 4, 4, hunks.get(0));
+    }
+
+    @Test
+    public void repeatedBlockDeletionLandsAtItsEnd() {
+        List<Diff.Hunk> hunks = Diff.diff(new int[] {7, 1, 2, 1, 2, 8},
+                new int[] {7, 1, 2, 8});
+        assertEquals(1, hunks.size());
+        assertHunk(3, 5, 3, 3, hunks.get(0));
+    }
+
+    @Test
+    public void replacementInARunKeepsTheOtherLines() {
+        int[] a = {4, 4, 4};
+        int[] b = {4, 9, 4};
+        assertArrayEquals(b, apply(a, b, Diff.diff(a, b)));
+    }
+
+    /** Hunks rebuild B from A, are ordered and separated by common lines,
+     *  and change no more lines than a longest common subsequence
+     *  leaves. */
+    @Test
+    public void randomDiffsAreMinimalAndCorrect() {
+        Random random = new Random(19);
+        for (int trial = 0; trial < 20000; trial++) {
+            int[] a = random(random);
+            int[] b = random(random);
+            List<Diff.Hunk> hunks = Diff.diff(a, b);
+            assertArrayEquals(b, apply(a, b, hunks));
+            int changed = 0;
+            for (int h = 0; h < hunks.size(); h++) {
+                Diff.Hunk hunk = hunks.get(h);
+                if (h > 0) {
+                    assertTrue(hunk.aStart > hunks.get(h - 1).aEnd);
+                    assertTrue(hunk.bStart > hunks.get(h - 1).bEnd);
+                }
+                changed += hunk.aEnd - hunk.aStart + hunk.bEnd - hunk.bStart;
+            }
+            assertEquals(a.length + b.length - 2 * lcs(a, b), changed);
+        }
+    }
+
+    private static int[] random(Random random) {
+        int[] lines = new int[random.nextInt(16)];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = random.nextInt(4);
+        }
+        return lines;
+    }
+
+    /** Returns A with HUNKS applied, taking inserted lines from B. */
+    private static int[] apply(int[] a, int[] b, List<Diff.Hunk> hunks) {
+        List<Integer> result = new ArrayList<>();
+        int i = 0;
+        for (Diff.Hunk hunk : hunks) {
+            while (i < hunk.aStart) {
+                result.add(a[i++]);
+            }
+            for (int j = hunk.bStart; j < hunk.bEnd; j++) {
+                result.add(b[j]);
+            }
+            i = hunk.aEnd;
+        }
+        while (i < a.length) {
+            result.add(a[i++]);
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int lcs(int[] a, int[] b) {
+        int[][] length = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i--) {
+            for (int j = b.length - 1; j >= 0; j--) {
+                length[i][j] = a[i] == b[j] ? length[i + 1][j + 1] + 1
+                        : Math.max(length[i + 1][j], length[i][j + 1]);
+            }
+        }
+        return length[0][0];
+    }
+
+    private static void assertHunk(int aStart, int aEnd, int bStart, int bEnd,
+                                   Diff.Hunk hunk) {
+        assertEquals(aStart, hunk.aStart);
+        assertEquals(aEnd, hunk.aEnd);
+        assertEquals(bStart, hunk.bStart);
+        assertEquals(bEnd, hunk.bEnd);
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests of the three-way line merge.
+ *  @author victorcruz
+ */
+public class LineMergeTest {
+    @Test
+    public void takesChangesFromEitherSide() throws IOException {
+        assertClean("a B c d E", "a b c d e", "a B c d e", "a b c d E");
+    }
+
+    @Test
+    public void takesAChangeBothSidesMadeOnce() throws IOException {
+        assertClean("a X c", "a b c", "a X c", "a X c");
+    }
+
+    @Test
+    public void conflictsOnDifferentChangesToOneLine() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(LineMerge.merge(text("a b c"), text("a X c"), text("a Y c"), out));
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\nc\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void endsConflictedLastLinesWithNewlines() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(LineMerge.merge("a\nb".getBytes(StandardCharsets.UTF_8),
+                "a\nX".getBytes(StandardCharsets.UTF_8),
+                "a\nY".getBytes(StandardCharsets.UTF_8), out));
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    /** Both sides delete the same line of a run of repeated lines, which
+     *  their diffs placed at different offsets. */
+    @Test
+    public void sameDeletionInARunIsTakenOnce() throws IOException {
+        assertClean("c3 l2 l5 l2 l2 l2 l5 l4 l3",
+                "l0 l2 l5 l2 l2 l2 l2 l5 l4 l3",
+                "c3 l2 l5 l2 l2 l2 l5 l4 l3",
+                "l0 l2 l5 l2 l2 l2 l5 l4 l3");
+    }
+
+    @Test
+    public void sameDeletionInARunBesideAnInsertion() throws IOException {
+        assertClean("n3 l1 l5 l1 l1 l2 l3 l4",
+                "l1 l5 l1 l1 l1 l2 l3 l4",
+                "l1 l5 l1 l1 l2 l3 l4",
+                "n3 l1 l5 l1 l1 l2 l3 l4");
+    }
+
+    /** In files made of runs of repeated lines, HEAD deletes a line and
+     *  GIVEN makes the same deletion and adds or replaces a line, so GIVEN
+     *  holds every change made; a merge reported clean must equal it. */
+    @Test
+    public void cleanMergesLoseNoLines() throws IOException {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 50000; trial++) {
+            List<String> base = new ArrayList<>();
+            int runs = 1 + random.nextInt(6);
+            for (int i = 0; i < runs; i++) {
+                int repeats = 1 + random.nextInt(4);
+                for (int j = 0; j < repeats; j++) {
+                    base.add("l" + i);
+                }
+            }
+            List<String> head = new ArrayList<>(base);
+            head.remove(random.nextInt(head.size()));
+            List<String> given = new ArrayList<>(head);
+            int at = random.nextInt(given.size() + 1);
+            if (random.nextBoolean() || at == given.size()) {
+                given.add(at, "n");
+            } else {
+                given.set(at, "n");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            boolean conflicted = LineMerge.merge(text(base), text(head), text(given), out);
+            if (!conflicted) {
+                assertEquals(base + " " + head + " " + given,
+                        new String(text(given), StandardCharsets.UTF_8),
+                        out.toString(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void assertClean(String expected, String base, String head, String given)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(LineMerge.merge(text(base), text(head), text(given), out));
+        assertEquals(expected.replace(' ', '\n') + "\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] text(String words) {
+        return (words.replace(' ', '\n') + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] text(List<String> lines) {
+        return lines.isEmpty() ? new byte[0]
+                : (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests of copying history between repositories, each command run as
+ *  its own gitlet process.
+ *  @author victorcruz
+ */
+public class RemoteTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cloneOfAShallowCloneStaysShallow() throws Exception {
+        File origin = origin(4);
+        File shallow = folder.newFolder("shallow");
+        gitlet(shallow, "clone", "--depth", "2", origin.getPath());
+        File copy = folder.newFolder("copy");
+        gitlet(copy, "clone", shallow.getPath());
+        String log = gitlet(copy, "log");
+        assertEquals(log, 2, count(log, "commit "));
+        assertEquals(gitlet(shallow, "log"), log);
+    }
+
+    @Test
+    public void fetchFromAShallowCloneStaysShallow() throws Exception {
+        File origin = origin(4);
+        File shallow = folder.newFolder("shallow");
+        gitlet(shallow, "clone", "--depth", "2", origin.getPath());
+        File other = folder.newFolder("other");
+        gitlet(other, "init");
+        gitlet(other, "add-remote", "s", new File(shallow, ".gitlet").getPath());
+        gitlet(other, "fetch", "s", "master");
+        gitlet(other, "reset", head(shallow));
+        String log = gitlet(other, "log");
+        assertEquals(log, 2, count(log, "commit "));
+        assertFalse(log, log.contains("Exception"));
+    }
+
+    /** Returns a repository with COMMITS commits after the initial one. */
+    private File origin(int commits) throws Exception {
+        File origin = folder.newFolder("origin");
+        gitlet(origin, "init");
+        for (int i = 1; i <= commits; i++) {
+            Files.writeString(new File(origin, "a.txt").toPath(), "v" + i + "\n");
+            gitlet(origin, "add", "a.txt");
+            gitlet(origin, "commit", "c" + i);
+        }
+        return origin;
+    }
+
+    private static String head(File repo) throws Exception {
+        return gitlet(repo, "log").split("\n")[1].substring("commit ".length());
+    }
+
+    private static int count(String text, String prefix) {
+        int count = 0;
+        for (String line : text.split("\n")) {
+            if (line.startsWith(prefix)) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Runs gitlet with ARGS in DIR and returns what it printed. */
+    private static String gitlet(File dir, String... args) throws IOException,
+            InterruptedException {
+        List<String> line = new ArrayList<>();
+        line.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        line.add("-cp");
+        line.add(System.getProperty("java.class.path"));
+        line.add("gitlet.Main");
+        line.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(line).directory(dir)
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        process.waitFor();
+        return output;
+    }
+}